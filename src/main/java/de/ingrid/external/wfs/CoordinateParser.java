@@ -0,0 +1,155 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+/**
+ * Parses the coordinates of gml:pos and gml:posList elements directly from the
+ * collected characters, without splitting the text into intermediate strings.
+ */
+final class CoordinateParser {
+
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+    // mantissas up to this value are exactly representable as double
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final CharSequence text;
+    private final int end;
+    private int cursor;
+
+    private CoordinateParser(CharSequence text) {
+        this.text = text;
+        this.end = text.length();
+    }
+
+    /**
+     * Read the first two coordinates of a gml:pos element.
+     * @param text is the content of the element
+     * @param target receives the coordinates
+     * @param offset is the position in target of the first coordinate
+     */
+    static void parsePos(CharSequence text, float[] target, int offset) {
+        CoordinateParser parser = new CoordinateParser( text );
+        target[offset] = parser.next();
+        target[offset + 1] = parser.next();
+    }
+
+    /**
+     * Determine the bounding box from a polygon given by a gml:posList by getting
+     * min/max values. The values are folded the same way as it was always done
+     * for the locations of this service, so that stored bounding boxes stay stable.
+     * @param text is the content of the element
+     * @param box receives the bounding box
+     */
+    static void parsePosListToBox(CharSequence text, float[] box) {
+        CoordinateParser parser = new CoordinateParser( text );
+        while (parser.hasNext()) {
+            float first = parser.next();
+            float second = parser.next();
+
+            if (box[1] == 0.0f || box[0] > first) {
+                box[1] = first;
+            }
+            if (box[0] == 0.0f || box[1] > second) {
+                box[0] = second;
+            }
+
+            if (box[3] < first) {
+                box[3] = first;
+            }
+            if (box[2] < second) {
+                box[2] = second;
+            }
+        }
+    }
+
+    private boolean hasNext() {
+        skipWhitespace();
+        return cursor < end;
+    }
+
+    private float next() {
+        skipWhitespace();
+        if (cursor >= end) {
+            throw new NumberFormatException( "Missing coordinate in: " + text );
+        }
+
+        int start = cursor;
+        boolean negative = false;
+        char c = text.charAt( cursor );
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            cursor++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean fraction = false;
+        boolean exact = true;
+        while (cursor < end) {
+            c = text.charAt( cursor );
+            if (c >= '0' && c <= '9') {
+                if (mantissa < MAX_EXACT_MANTISSA / 10) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (fraction) {
+                        scale--;
+                    }
+                } else {
+                    exact = false;
+                }
+                digits++;
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+            cursor++;
+        }
+        if (digits == 0) {
+            throw new NumberFormatException( "Invalid coordinate in: " + text );
+        }
+
+        // exponents and numbers that do not fit the fast path are rare in GML
+        if (cursor < end && !Character.isWhitespace( text.charAt( cursor ) )) {
+            exact = false;
+            while (cursor < end && !Character.isWhitespace( text.charAt( cursor ) )) {
+                cursor++;
+            }
+        }
+        if (!exact || scale < -22) {
+            return Float.parseFloat( text.subSequence( start, cursor ).toString() );
+        }
+
+        double value = mantissa / POW10[-scale];
+        return (float) (negative ? -value : value);
+    }
+
+    private void skipWhitespace() {
+        while (cursor < end && Character.isWhitespace( text.charAt( cursor ) )) {
+            cursor++;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.ResourceBundle;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.ingrid.external.om.Location;
+import de.ingrid.external.om.impl.LocationImpl;
+
+/**
+ * Harvests all locations of the configured object types from the WFS into a
+ * {@link GazetteerSnapshot}. The locations are requested in pages ordered by their
+ * ID. Every page is appended to a staging file and the last ID is stored, so that
+ * an interrupted harvest continues where it stopped. When all pages are harvested
+ * the snapshot is written to a temporary file and atomically moved over the
+ * previous one, which can still be read by the mapped snapshot.
+ */
+public class GazetteerHarvester {
+
+    private Logger log = LogManager.getLogger( GazetteerHarvester.class );
+
+    static final String SNAPSHOT_FILE = "gazetteer.snapshot";
+    private static final String STAGING_FILE = "gazetteer.harvest";
+    private static final String STATE_FILE = "gazetteer.harvest.state";
+
+    private WFSClient client;
+    private WFSMapper mapper;
+    private Path dir;
+    private int pageSize;
+
+    public GazetteerHarvester(WFSClient client, WFSMapper mapper, Path dir, int pageSize) {
+        this.client = client;
+        this.mapper = mapper;
+        this.dir = dir;
+        this.pageSize = pageSize;
+    }
+
+    public Path getSnapshotFile() {
+        return dir.resolve( SNAPSHOT_FILE );
+    }
+
+    /**
+     * Harvest all locations or continue an interrupted harvest and write the snapshot.
+     * @return the new snapshot
+     * @throws IOException if a request or writing the files failed, the harvest can be continued later
+     */
+    public synchronized GazetteerSnapshot harvest() throws IOException {
+        Files.createDirectories( dir );
+        Path stagingFile = dir.resolve( STAGING_FILE );
+
+        State state = readState();
+        if (state == null) {
+            state = new State( "", 0, System.currentTimeMillis() );
+        } else {
+            log.info( "Continue harvesting gazetteer after ID: {}", state.lastId );
+        }
+
+        try (FileChannel staging = FileChannel.open( stagingFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE )) {
+            // drop a page which was written incompletely
+            staging.truncate( state.length );
+            staging.position( state.length );
+            DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Channels.newOutputStream( staging ), 65536 ) );
+
+            while (true) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException( "Harvesting gazetteer interrupted after ID: " + state.lastId );
+                }
+
+                List<List<String>> names = new ArrayList<List<String>>();
+                Location[] page;
+                RequestTrace trace;
+                try (InputStream response = client.harvestLocations( state.lastId, pageSize )) {
+                    trace = WFSClient.getTrace( response );
+                    page = mapper.mapReponseToLocations( response, names, trace );
+                }
+                if (page == null) {
+                    throw new IOException( "Invalid response harvesting gazetteer after ID: " + state.lastId );
+                }
+                if (page.length == 0) {
+                    // only an empty page ends the harvest, not a page whose features all failed
+                    if (trace != null && trace.members > 0) {
+                        throw new IOException( "None of " + trace.members + " locations could be mapped harvesting gazetteer after ID: " + state.lastId );
+                    }
+                    break;
+                }
+
+                String lastId = state.lastId;
+                for (int i = 0; i < page.length; i++) {
+                    String id = page[i].getId();
+                    int cmp = id.compareTo( lastId );
+                    if (cmp < 0) {
+                        throw new IOException( "WFS Service does not order the locations by ID, harvesting is not possible" );
+                    } else if (cmp > 0) {
+                        writeLocation( out, page[i], names.get( i ) );
+                        lastId = id;
+                    }
+                }
+                if (lastId.equals( state.lastId )) {
+                    throw new IOException( "No progress harvesting gazetteer after ID: " + lastId );
+                }
+
+                out.flush();
+                staging.force( false );
+                state = new State( lastId, staging.position(), state.startedAt );
+                writeState( state );
+                log.debug( "Harvested {} locations of gazetteer up to ID: {}", page.length, lastId );
+            }
+        }
+
+        GazetteerSnapshotWriter writer = new GazetteerSnapshotWriter();
+        try (DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( stagingFile ), 65536 ) )) {
+            while (true) {
+                Location location;
+                List<String> names;
+                try {
+                    location = readLocation( in );
+                } catch (EOFException e) {
+                    break;
+                }
+                names = readNames( in );
+                writer.add( location, names );
+            }
+        }
+
+        Path tmp = dir.resolve( SNAPSHOT_FILE + ".tmp" );
+        writer.write( tmp, state.startedAt );
+        Files.move( tmp, getSnapshotFile(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+        Files.deleteIfExists( dir.resolve( STATE_FILE ) );
+        Files.deleteIfExists( stagingFile );
+        log.info( "Harvested {} locations of gazetteer into: {}", writer.size(), getSnapshotFile() );
+
+        return GazetteerSnapshot.open( getSnapshotFile() );
+    }
+
+    private static void writeLocation(DataOutputStream out, Location location, List<String> names) throws IOException {
+        writeString( out, location.getId() );
+        writeString( out, location.getName() );
+        writeString( out, location.getTypeId() );
+        writeString( out, location.getTypeName() );
+        writeString( out, location.getNativeKey() );
+        float[] box = location.getBoundingBox();
+        for (int i = 0; i < 4; i++) {
+            out.writeFloat( box == null ? 0.0f : box[i] );
+        }
+        out.writeInt( names.size() );
+        for (String name : names) {
+            out.writeUTF( name );
+        }
+    }
+
+    private static Location readLocation(DataInputStream in) throws IOException {
+        Location location = new LocationImpl();
+        location.setId( readString( in ) );
+        location.setName( readString( in ) );
+        location.setTypeId( readString( in ) );
+        location.setTypeName( readString( in ) );
+        location.setNativeKey( readString( in ) );
+        location.setBoundingBox( in.readFloat(), in.readFloat(), in.readFloat(), in.readFloat() );
+        return location;
+    }
+
+    private static List<String> readNames(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<String> names = new ArrayList<String>( count );
+        for (int i = 0; i < count; i++) {
+            names.add( in.readUTF() );
+        }
+        return names;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean( value != null );
+        if (value != null) {
+            out.writeUTF( value );
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private State readState() throws IOException {
+        Path stateFile = dir.resolve( STATE_FILE );
+        if (!Files.exists( stateFile ) || !Files.exists( dir.resolve( STAGING_FILE ) )) {
+            return null;
+        }
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader( stateFile, StandardCharsets.UTF_8 )) {
+            props.load( reader );
+        }
+        return new State( props.getProperty( "lastId" ),
+                Long.parseLong( props.getProperty( "length" ) ),
+                Long.parseLong( props.getProperty( "startedAt" ) ) );
+    }
+
+    private void writeState(State state) throws IOException {
+        Properties props = new Properties();
+        props.setProperty( "lastId", state.lastId );
+        props.setProperty( "length", String.valueOf( state.length ) );
+        props.setProperty( "startedAt", String.valueOf( state.startedAt ) );
+
+        Path tmp = dir.resolve( STATE_FILE + ".tmp" );
+        try (OutputStream out = Files.newOutputStream( tmp ); Writer writer = new OutputStreamWriter( out, StandardCharsets.UTF_8 )) {
+            props.store( writer, "state of the gazetteer harvest" );
+        }
+        Files.move( tmp, dir.resolve( STATE_FILE ), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    /**
+     * The progress of a harvest: the last harvested ID and the length of the staging file.
+     */
+    private static class State {
+        final String lastId;
+        final long length;
+        final long startedAt;
+
+        State(String lastId, long length, long startedAt) {
+            this.lastId = lastId;
+            this.length = length;
+            this.startedAt = startedAt;
+        }
+    }
+
+    /**
+     * Harvest the gazetteer configured in wfs.properties.
+     * @param args may contain the directory of the snapshot, defaults to "snapshot.dir"
+     */
+    public static void main(String[] args) throws Exception {
+        ResourceBundle wfsProps = ResourceBundle.getBundle( "wfs" );
+        String url = wfsProps.getString( "url" );
+        String[] types = wfsProps.getString( "objectTypes" ).split( "," );
+        String[] properties = wfsProps.getString( "properties" ).split( "," );
+        Path dir = Paths.get( args.length > 0 ? args[0] : wfsProps.getString( "snapshot.dir" ) );
+
+        WFSClient client = new WFSClient( url, properties, types );
+        try {
+            GazetteerHarvester harvester = new GazetteerHarvester( client, new WFSMapper( wfsProps ), dir,
+                    WFSService.getIntProperty( wfsProps, "snapshot.pageSize", 1000 ) );
+            harvester.harvest();
+        } finally {
+            client.close();
+        }
+    }
+
+}
@@ -0,0 +1,346 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import de.ingrid.external.GazetteerService.MatchingType;
+import de.ingrid.external.om.Location;
+import de.ingrid.external.om.impl.LocationImpl;
+
+/**
+ * A read-only, memory-mapped snapshot of the gazetteer, written by
+ * {@link GazetteerSnapshotWriter}. It answers searches by name with the same
+ * matching as the WFS and lookups by ID without any request. A snapshot never
+ * changes, so it can be used by any number of threads.
+ * <p>
+ * The file consists of a header, the records of the locations sorted by ID, the
+ * names sorted by their normalized form for prefix searches, a trigram index of
+ * the names for substring searches and the pool of all strings.
+ */
+public final class GazetteerSnapshot {
+
+    static final int MAGIC = 0x47415A31; // "GAZ1"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 64;
+
+    // a record contains the offsets of id, name, typeId, typeName, nativeKey and the bounding box
+    static final int RECORD_SIZE = 5 * 4 + 4 * 4;
+    // a name entry contains the offsets of the normalized name, the index of its record and the offset of the name as harvested
+    static final int NAME_ENTRY_SIZE = 3 * 4;
+
+    private final Path file;
+    private final ByteBuffer buffer;
+    private final long createdAt;
+    private final int recordCount;
+    private final int nameCount;
+    private final int trigramCount;
+    private final int recordsOffset;
+    private final int namesOffset;
+    private final int trigramKeysOffset;
+    private final int postingStartsOffset;
+    private final int postingsOffset;
+    private final int stringsOffset;
+
+    private GazetteerSnapshot(Path file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt( 0 ) != MAGIC || buffer.getInt( 4 ) != VERSION) {
+            throw new IOException( "Not a gazetteer snapshot of version " + VERSION + ": " + file );
+        }
+        createdAt = buffer.getLong( 8 );
+        recordCount = buffer.getInt( 16 );
+        nameCount = buffer.getInt( 20 );
+        trigramCount = buffer.getInt( 24 );
+        recordsOffset = buffer.getInt( 28 );
+        namesOffset = buffer.getInt( 32 );
+        trigramKeysOffset = buffer.getInt( 36 );
+        postingStartsOffset = trigramKeysOffset + 4 * trigramCount;
+        postingsOffset = buffer.getInt( 40 );
+        stringsOffset = buffer.getInt( 44 );
+    }
+
+    /**
+     * Map a snapshot file into memory.
+     * @param file is the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read or is no snapshot
+     */
+    public static GazetteerSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open( file, StandardOpenOption.READ )) {
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            return new GazetteerSnapshot( file, buffer );
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the time of the harvest in milliseconds since the epoch
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return the number of locations
+     */
+    public int size() {
+        return recordCount;
+    }
+
+    /**
+     * Get a location by its ID.
+     * @param locationId is the ID (gn:nnid) of the location
+     * @return the location or null if it is not contained
+     */
+    public Location get(String locationId) {
+        if (locationId == null) {
+            return null;
+        }
+        byte[] key = locationId.getBytes( StandardCharsets.UTF_8 );
+        int low = 0;
+        int high = recordCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareString( stringsOffset + buffer.getInt( recordsOffset + mid * RECORD_SIZE ), key, false );
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return toLocation( mid );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get a location by its position in the snapshot, e.g. to iterate over all locations.
+     * @param index is between 0 and {@link #size()} - 1, the locations are ordered by ID
+     */
+    Location get(int index) {
+        if (index < 0 || index >= recordCount) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", size: " + recordCount );
+        }
+        return toLocation( index );
+    }
+
+    /**
+     * Read the bounding box of a location without creating it, e.g. to index all locations.
+     * @param index is between 0 and {@link #size()} - 1
+     * @param box receives minX, minY, maxX, maxY like {@link Location#getBoundingBox()}
+     */
+    void getBoundingBox(int index, float[] box) {
+        if (index < 0 || index >= recordCount) {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", size: " + recordCount );
+        }
+        int offset = recordsOffset + index * RECORD_SIZE;
+        for (int i = 0; i < 4; i++) {
+            box[i] = buffer.getFloat( offset + 20 + 4 * i );
+        }
+    }
+
+    /**
+     * Search locations by their name like {@link WFSClient#findLocation(String, MatchingType, java.util.Locale)}.
+     * @param term is the name to search for
+     * @param matching defines how the name is matched, defaults to CONTAINS
+     * @return the found locations
+     */
+    public Location[] find(String term, MatchingType matching) {
+        LikePattern pattern = LikePattern.compile( WFSClient.toQuery( term, matching ) );
+        BitSet found = new BitSet( recordCount );
+        List<Location> result = new ArrayList<Location>();
+
+        byte[] prefix = pattern.getPrefix();
+        byte[] literal = pattern.getLongestLiteral();
+        if (prefix.length > 0) {
+            // all matches are in the range of names starting with the prefix
+            for (int e = lowerBound( prefix ); e < nameCount && compareString( nameOffset( e ), prefix, true ) == 0; e++) {
+                collect( e, pattern, found, result );
+            }
+        } else if (literal.length >= 3) {
+            // all matches contain each trigram of the literal, use the one with the fewest names
+            int start = 0;
+            int end = Integer.MAX_VALUE;
+            for (int i = 0; i + 3 <= literal.length; i++) {
+                int t = findTrigram( trigram( literal, i ) );
+                if (t < 0) {
+                    return new Location[0];
+                }
+                int s = buffer.getInt( postingStartsOffset + 4 * t );
+                int e = buffer.getInt( postingStartsOffset + 4 * (t + 1) );
+                if (e - s < end - start) {
+                    start = s;
+                    end = e;
+                }
+            }
+            for (int p = start; p < end; p++) {
+                collect( buffer.getInt( postingsOffset + 4 * p ), pattern, found, result );
+            }
+        } else {
+            for (int e = 0; e < nameCount; e++) {
+                collect( e, pattern, found, result );
+            }
+        }
+        return result.toArray( new Location[0] );
+    }
+
+    /**
+     * Get all locations with a name equal to the given one. This is a binary search
+     * in the sorted names, so it is cheap enough to look up every word sequence of
+     * a text.
+     * @param name is the exact name without wildcards
+     * @param ignoreCase defines if the case of the name is ignored, otherwise it must
+     * be equal to one of the names as harvested like the exact match of the WFS
+     * @return the found locations
+     */
+    public Location[] findName(String name, boolean ignoreCase) {
+        byte[] key = LikePattern.normalize( name ).getBytes( StandardCharsets.UTF_8 );
+        byte[] exact = ignoreCase ? null : name.getBytes( StandardCharsets.UTF_8 );
+        List<Location> result = new ArrayList<Location>();
+        // names differing only in case are adjacent entries of the same record
+        int previous = -1;
+        for (int e = lowerBound( key ); e < nameCount && compareString( nameOffset( e ), key, false ) == 0; e++) {
+            int entry = namesOffset + e * NAME_ENTRY_SIZE;
+            int record = buffer.getInt( entry + 4 );
+            if (record != previous && (exact == null || compareString( stringsOffset + buffer.getInt( entry + 8 ), exact, false ) == 0)) {
+                result.add( toLocation( record ) );
+                previous = record;
+            }
+        }
+        return result.toArray( new Location[0] );
+    }
+
+    private void collect(int nameEntry, LikePattern pattern, BitSet found, List<Location> result) {
+        int record = buffer.getInt( namesOffset + nameEntry * NAME_ENTRY_SIZE + 4 );
+        if (found.get( record )) {
+            return;
+        }
+        int offset = nameOffset( nameEntry );
+        if (pattern.matches( buffer, offset + 2, buffer.getShort( offset ) & 0xFFFF )) {
+            found.set( record );
+            result.add( toLocation( record ) );
+        }
+    }
+
+    private int nameOffset(int nameEntry) {
+        return stringsOffset + buffer.getInt( namesOffset + nameEntry * NAME_ENTRY_SIZE );
+    }
+
+    /**
+     * @return the index of the first name entry, which is not less than the key
+     */
+    private int lowerBound(byte[] key) {
+        int low = 0;
+        int high = nameCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareString( nameOffset( mid ), key, false ) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int findTrigram(int key) {
+        int low = 0;
+        int high = trigramCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int value = buffer.getInt( trigramKeysOffset + 4 * mid );
+            if (value < key) {
+                low = mid + 1;
+            } else if (value > key) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    static int trigram(byte[] bytes, int i) {
+        return (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+    }
+
+    /**
+     * Compare a string of the pool with the key by their unsigned bytes.
+     * @param offset is the absolute offset of the string
+     * @param prefixOnly compares only the first bytes of the string, as many as the key has
+     */
+    private int compareString(int offset, byte[] key, boolean prefixOnly) {
+        int length = buffer.getShort( offset ) & 0xFFFF;
+        int n = Math.min( length, key.length );
+        for (int i = 0; i < n; i++) {
+            int cmp = (buffer.get( offset + 2 + i ) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        if (prefixOnly && length >= key.length) {
+            return 0;
+        }
+        return length - key.length;
+    }
+
+    private Location toLocation(int record) {
+        int offset = recordsOffset + record * RECORD_SIZE;
+        Location loc = new LocationImpl();
+        loc.setId( getString( buffer.getInt( offset ) ) );
+        loc.setName( getString( buffer.getInt( offset + 4 ) ) );
+        loc.setTypeId( getString( buffer.getInt( offset + 8 ) ) );
+        loc.setTypeName( getString( buffer.getInt( offset + 12 ) ) );
+        loc.setNativeKey( getString( buffer.getInt( offset + 16 ) ) );
+        loc.setBoundingBox( buffer.getFloat( offset + 20 ), buffer.getFloat( offset + 24 ),
+                buffer.getFloat( offset + 28 ), buffer.getFloat( offset + 32 ) );
+        return loc;
+    }
+
+    /**
+     * @param relative is the offset in the string pool or -1 for null
+     */
+    private String getString(int relative) {
+        if (relative < 0) {
+            return null;
+        }
+        int offset = stringsOffset + relative;
+        byte[] bytes = new byte[buffer.getShort( offset ) & 0xFFFF];
+        buffer.get( offset + 2, bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import static de.ingrid.external.wfs.GazetteerSnapshot.HEADER_SIZE;
+import static de.ingrid.external.wfs.GazetteerSnapshot.MAGIC;
+import static de.ingrid.external.wfs.GazetteerSnapshot.NAME_ENTRY_SIZE;
+import static de.ingrid.external.wfs.GazetteerSnapshot.RECORD_SIZE;
+import static de.ingrid.external.wfs.GazetteerSnapshot.VERSION;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import de.ingrid.external.om.Location;
+
+/**
+ * Collects harvested locations and writes them into the file format read by
+ * {@link GazetteerSnapshot}.
+ */
+final class GazetteerSnapshotWriter {
+
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Add a location, a location with an already added ID is ignored.
+     * @param location is the mapped location
+     * @param names are all names the location can be found by
+     */
+    void add(Location location, List<String> names) {
+        if (location.getId() == null || entries.containsKey( location.getId() )) {
+            return;
+        }
+        Set<String> distinct = new LinkedHashSet<String>();
+        if (location.getName() != null) {
+            distinct.add( location.getName() );
+        }
+        if (names != null) {
+            for (String name : names) {
+                if (name != null) {
+                    distinct.add( name );
+                }
+            }
+        }
+        entries.put( location.getId(), new Entry( location, distinct ) );
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Write the snapshot file.
+     * @param file is the file to write
+     * @param createdAt is the time of the harvest
+     */
+    void write(Path file, long createdAt) throws IOException {
+        List<Entry> records = new ArrayList<Entry>( entries.values() );
+        for (Entry entry : records) {
+            entry.idBytes = entry.location.getId().getBytes( StandardCharsets.UTF_8 );
+        }
+        records.sort( (a, b) -> Arrays.compareUnsigned( a.idBytes, b.idBytes ) );
+
+        StringPool strings = new StringPool();
+        List<NameEntry> names = new ArrayList<NameEntry>();
+        for (int r = 0; r < records.size(); r++) {
+            Location l = records.get( r ).location;
+            records.get( r ).offsets = new int[] {
+                    strings.add( l.getId() ),
+                    strings.add( l.getName() ),
+                    strings.add( l.getTypeId() ),
+                    strings.add( l.getTypeName() ),
+                    strings.add( l.getNativeKey() ) };
+            for (String name : records.get( r ).names) {
+                String normalized = LikePattern.normalize( name );
+                names.add( new NameEntry( strings.add( normalized ), r, strings.add( name ), normalized.getBytes( StandardCharsets.UTF_8 ) ) );
+            }
+        }
+        names.sort( (a, b) -> {
+            int cmp = Arrays.compareUnsigned( a.bytes, b.bytes );
+            return cmp != 0 ? cmp : Integer.compare( a.record, b.record );
+        } );
+
+        // the trigrams of each name, referencing the name entries in ascending order
+        TreeMap<Integer, List<Integer>> trigrams = new TreeMap<Integer, List<Integer>>();
+        for (int e = 0; e < names.size(); e++) {
+            byte[] bytes = names.get( e ).bytes;
+            for (int i = 0; i + 3 <= bytes.length; i++) {
+                List<Integer> postings = trigrams.computeIfAbsent( GazetteerSnapshot.trigram( bytes, i ), k -> new ArrayList<Integer>() );
+                if (postings.isEmpty() || postings.get( postings.size() - 1 ) != e) {
+                    postings.add( e );
+                }
+            }
+        }
+        int postingCount = 0;
+        for (List<Integer> postings : trigrams.values()) {
+            postingCount += postings.size();
+        }
+
+        int recordsOffset = HEADER_SIZE;
+        int namesOffset = recordsOffset + records.size() * RECORD_SIZE;
+        int trigramKeysOffset = namesOffset + names.size() * NAME_ENTRY_SIZE;
+        int postingsOffset = trigramKeysOffset + 4 * trigrams.size() + 4 * (trigrams.size() + 1);
+        int stringsOffset = postingsOffset + 4 * postingCount;
+
+        try (DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( file ), 65536 ) )) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeLong( createdAt );
+            out.writeInt( records.size() );
+            out.writeInt( names.size() );
+            out.writeInt( trigrams.size() );
+            out.writeInt( recordsOffset );
+            out.writeInt( namesOffset );
+            out.writeInt( trigramKeysOffset );
+            out.writeInt( postingsOffset );
+            out.writeInt( stringsOffset );
+            out.write( new byte[HEADER_SIZE - out.size()] );
+
+            for (Entry entry : records) {
+                for (int offset : entry.offsets) {
+                    out.writeInt( offset );
+                }
+                float[] box = entry.location.getBoundingBox();
+                for (int i = 0; i < 4; i++) {
+                    out.writeFloat( box == null ? 0.0f : box[i] );
+                }
+            }
+            for (NameEntry name : names) {
+                out.writeInt( name.offset );
+                out.writeInt( name.record );
+                out.writeInt( name.originalOffset );
+            }
+            for (Integer key : trigrams.keySet()) {
+                out.writeInt( key );
+            }
+            int start = 0;
+            for (List<Integer> postings : trigrams.values()) {
+                out.writeInt( start );
+                start += postings.size();
+            }
+            out.writeInt( start );
+            for (List<Integer> postings : trigrams.values()) {
+                for (int e : postings) {
+                    out.writeInt( e );
+                }
+            }
+            strings.writeTo( out );
+        }
+    }
+
+    private static class Entry {
+        final Location location;
+        final Set<String> names;
+        byte[] idBytes;
+        int[] offsets;
+
+        Entry(Location location, Set<String> names) {
+            this.location = location;
+            this.names = names;
+        }
+    }
+
+    private static class NameEntry {
+        final int offset;
+        final int record;
+        final int originalOffset;
+        final byte[] bytes;
+
+        NameEntry(int offset, int record, int originalOffset, byte[] bytes) {
+            this.offset = offset;
+            this.record = record;
+            this.originalOffset = originalOffset;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Stores each distinct string once, prefixed by the length of its UTF-8 bytes.
+     */
+    private static class StringPool {
+        private final Map<String, Integer> offsets = new HashMap<String, Integer>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 1 << 20 );
+
+        int add(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer offset = offsets.get( value );
+            if (offset == null) {
+                byte[] b = value.getBytes( StandardCharsets.UTF_8 );
+                if (b.length > 0xFFFF) {
+                    throw new IllegalArgumentException( "String too long for snapshot: " + value.substring( 0, 100 ) );
+                }
+                offset = bytes.size();
+                bytes.write( b.length >>> 8 );
+                bytes.write( b.length & 0xFF );
+                bytes.write( b, 0, b.length );
+                offsets.put( value, offset );
+            }
+            return offset;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            bytes.writeTo( out );
+        }
+    }
+
+}
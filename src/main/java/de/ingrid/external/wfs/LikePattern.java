@@ -0,0 +1,176 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * A case insensitive pattern of an ogc:PropertyIsLike filter, as it is sent by
+ * {@link WFSClient} (wildcard "*", single char "?" and a backslash as escape char). The pattern
+ * is matched against the lower case UTF-8 bytes of a name.
+ */
+final class LikePattern {
+
+    // values of the pattern, which are no literal bytes
+    private static final int MULTI = -1;
+    private static final int SINGLE = -2;
+
+    private final int[] pattern;
+    private final byte[] prefix;
+    private final byte[] longestLiteral;
+
+    private LikePattern(int[] pattern, byte[] prefix, byte[] longestLiteral) {
+        this.pattern = pattern;
+        this.prefix = prefix;
+        this.longestLiteral = longestLiteral;
+    }
+
+    /**
+     * @param query is the value of the filter literal including wildcards
+     */
+    static LikePattern compile(String query) {
+        String q = normalize( query );
+        int[] pattern = new int[q.length() * 4];
+        int length = 0;
+        byte[] prefix = null;
+        byte[] longest = new byte[0];
+        ByteArrayOutputStream literal = new ByteArrayOutputStream();
+
+        for (int i = 0; i < q.length(); i++) {
+            char c = q.charAt( i );
+            if (c == '*' || c == '?') {
+                byte[] run = literal.toByteArray();
+                if (prefix == null) {
+                    prefix = run;
+                }
+                if (run.length > longest.length) {
+                    longest = run;
+                }
+                literal.reset();
+                pattern[length++] = c == '*' ? MULTI : SINGLE;
+            } else {
+                if (c == '\\' && i + 1 < q.length()) {
+                    c = q.charAt( ++i );
+                }
+                int end = Character.isHighSurrogate( c ) && i + 1 < q.length() ? i + 2 : i + 1;
+                byte[] bytes = q.substring( i, end ).getBytes( StandardCharsets.UTF_8 );
+                i = end - 1;
+                for (byte b : bytes) {
+                    pattern[length++] = b & 0xFF;
+                }
+                literal.write( bytes, 0, bytes.length );
+            }
+        }
+        byte[] run = literal.toByteArray();
+        if (prefix == null) {
+            prefix = run;
+        }
+        if (run.length > longest.length) {
+            longest = run;
+        }
+
+        int[] compact = new int[length];
+        System.arraycopy( pattern, 0, compact, 0, length );
+        return new LikePattern( compact, prefix, longest );
+    }
+
+    /**
+     * Normalize a name or query for the case insensitive comparison.
+     */
+    static String normalize(String value) {
+        return String.valueOf( value ).toLowerCase( Locale.ROOT );
+    }
+
+    /**
+     * @return the literal bytes before the first wildcard, which every match starts with
+     */
+    byte[] getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the longest run of literal bytes, which every match contains
+     */
+    byte[] getLongestLiteral() {
+        return longestLiteral;
+    }
+
+    /**
+     * Match the normalized UTF-8 bytes of a name.
+     * @param buffer contains the name
+     * @param offset is the position of the name in the buffer
+     * @param length is the number of bytes of the name
+     * @return true if the whole name matches the pattern
+     */
+    boolean matches(ByteBuffer buffer, int offset, int length) {
+        int i = 0;
+        int j = 0;
+        int starJ = -1;
+        int starI = 0;
+        while (i < length) {
+            int p = j < pattern.length ? pattern[j] : Integer.MIN_VALUE;
+            if (p == SINGLE) {
+                i += charLength( buffer.get( offset + i ) );
+                j++;
+            } else if (p >= 0 && p == (buffer.get( offset + i ) & 0xFF)) {
+                i++;
+                j++;
+            } else if (p == MULTI) {
+                starJ = j++;
+                starI = i;
+            } else if (starJ >= 0) {
+                // let the last wildcard consume one more character and try again
+                j = starJ + 1;
+                starI += charLength( buffer.get( offset + starI ) );
+                i = starI;
+            } else {
+                return false;
+            }
+        }
+        while (j < pattern.length && pattern[j] == MULTI) {
+            j++;
+        }
+        return i == length && j == pattern.length;
+    }
+
+    /**
+     * @return the number of bytes of the UTF-8 character starting with the given byte
+     */
+    private static int charLength(byte first) {
+        int b = first & 0xFF;
+        if (b < 0x80) {
+            return 1;
+        } else if (b >= 0xF0) {
+            return 4;
+        } else if (b >= 0xE0) {
+            return 3;
+        } else if (b >= 0xC0) {
+            return 2;
+        }
+        return 1;
+    }
+
+}
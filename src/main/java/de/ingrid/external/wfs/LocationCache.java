@@ -0,0 +1,326 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.ingrid.external.om.Location;
+import de.ingrid.external.om.impl.LocationImpl;
+
+/**
+ * A bounded in-memory cache for the locations returned by the WFS. Entries are
+ * evicted in LRU order when the maximum number of entries or the estimated memory
+ * is exceeded. After the time to live an entry is still returned for the stale
+ * period, while it is reloaded in the background. Concurrent misses of the same key
+ * are coalesced, so that only one request is sent to the WFS.
+ * The locations are copied when added and returned, so a caller may modify them.
+ *
+ * @param <K> is the type of the key
+ */
+public class LocationCache<K> {
+
+    private Logger log = LogManager.getLogger( LocationCache.class );
+
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long ttl;
+    private final long stale;
+    private final Executor refreshExecutor;
+    private final LongSupplier ticker;
+
+    // guarded by "this", in access order for the LRU eviction
+    private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<K, Entry>( 256, 0.75f, true );
+    private long weight;
+
+    // the loads currently running, to coalesce concurrent misses
+    private final Map<K, CompletableFuture<Location[]>> loading = new ConcurrentHashMap<K, CompletableFuture<Location[]>>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxEntries is the maximum number of cached results
+     * @param maxWeight is the maximum estimated memory of all cached results in bytes
+     * @param ttl is the time in seconds a result is fresh
+     * @param stale is the time in seconds after the ttl, during which a result is still returned while being reloaded
+     * @param refreshExecutor executes the reloads of stale results
+     */
+    public LocationCache(int maxEntries, long maxWeight, long ttl, long stale, Executor refreshExecutor) {
+        this( maxEntries, maxWeight, ttl, stale, refreshExecutor, System::nanoTime );
+    }
+
+    LocationCache(int maxEntries, long maxWeight, long ttl, long stale, Executor refreshExecutor, LongSupplier ticker) {
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.ttl = TimeUnit.SECONDS.toNanos( ttl );
+        this.stale = TimeUnit.SECONDS.toNanos( stale );
+        this.refreshExecutor = refreshExecutor;
+        this.ticker = ticker;
+    }
+
+    /**
+     * Get the cached result for the key or load it. A result of null is returned
+     * but not cached, since it signals a failed request.
+     * @param key is the normalized key of the request
+     * @param loader requests the result from the WFS
+     * @return a copy of the result
+     */
+    public Location[] get(K key, Supplier<Location[]> loader) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get( key );
+        }
+        if (entry != null) {
+            long age = ticker.getAsLong() - entry.loaded;
+            if (age <= ttl) {
+                hits.increment();
+                return copy( entry.value );
+            }
+            if (age <= ttl + stale) {
+                staleHits.increment();
+                refresh( key, loader );
+                return copy( entry.value );
+            }
+        }
+
+        misses.increment();
+        return copy( load( key, loader ) );
+    }
+
+    /**
+     * Get the cached result for the key without loading it, e.g. to collect the keys
+     * which are loaded together by a single request.
+     * @return a copy of the result or null if it is not cached or expired
+     */
+    public Location[] getIfPresent(K key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get( key );
+        }
+        if (entry != null && ticker.getAsLong() - entry.loaded <= ttl) {
+            hits.increment();
+            return copy( entry.value );
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Add a result to the cache, e.g. a location which was found by another request.
+     */
+    public void put(K key, Location[] value) {
+        long entryWeight = estimateWeight( value );
+        Location[] cached = copy( value );
+        synchronized (this) {
+            Entry old = entries.put( key, new Entry( cached, entryWeight, ticker.getAsLong() ) );
+            if (old != null) {
+                weight -= old.weight;
+            }
+            weight += entryWeight;
+
+            Iterator<Entry> it = entries.values().iterator();
+            while ((entries.size() > maxEntries || weight > maxWeight) && it.hasNext()) {
+                weight -= it.next().weight;
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the estimated memory of all cached results in bytes
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getStaleHitCount() {
+        return staleHits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of misses which waited for the request of another caller
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getLoadFailureCount() {
+        return loadFailures.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private Location[] load(K key, Supplier<Location[]> loader) {
+        CompletableFuture<Location[]> future = new CompletableFuture<Location[]>();
+        CompletableFuture<Location[]> running = loading.putIfAbsent( key, future );
+        if (running != null) {
+            coalesced.increment();
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            Location[] value = loader.get();
+            if (value != null) {
+                put( key, value );
+            } else {
+                loadFailures.increment();
+            }
+            future.complete( value );
+            return value;
+        } catch (RuntimeException | Error e) {
+            // also an error must release the coalesced callers waiting for this load
+            loadFailures.increment();
+            future.completeExceptionally( e );
+            throw e;
+        } finally {
+            loading.remove( key, future );
+        }
+    }
+
+    private void refresh(K key, Supplier<Location[]> loader) {
+        if (loading.containsKey( key )) {
+            return;
+        }
+        try {
+            refreshExecutor.execute( () -> {
+                try {
+                    load( key, loader );
+                } catch (RuntimeException e) {
+                    log.warn( "Error refreshing cached locations ... key={}", key, e );
+                }
+            } );
+        } catch (RejectedExecutionException e) {
+            log.debug( "Refresh of cached locations rejected ... key={}", key );
+        }
+    }
+
+    private static Location[] copy(Location[] value) {
+        if (value == null) {
+            return null;
+        }
+        Location[] result = new Location[value.length];
+        for (int i = 0; i < value.length; i++) {
+            result[i] = copy( value[i] );
+        }
+        return result;
+    }
+
+    /**
+     * @return a new location with the values of the given one
+     */
+    static Location copy(Location location) {
+        Location result = new LocationImpl();
+        result.setId( location.getId() );
+        result.setName( location.getName() );
+        result.setTypeId( location.getTypeId() );
+        result.setTypeName( location.getTypeName() );
+        result.setNativeKey( location.getNativeKey() );
+        result.setQualifier( location.getQualifier() );
+        float[] box = location.getBoundingBox();
+        if (box != null) {
+            result.setBoundingBox( box[0], box[1], box[2], box[3] );
+        }
+        return result;
+    }
+
+    /**
+     * Roughly estimate the memory of a result, the exact size depends on the JVM.
+     */
+    static long estimateWeight(Location[] value) {
+        long w = 128 + 8L * value.length;
+        for (Location l : value) {
+            w += 160
+                    + estimateWeight( l.getId() )
+                    + estimateWeight( l.getName() )
+                    + estimateWeight( l.getTypeId() )
+                    + estimateWeight( l.getTypeName() )
+                    + estimateWeight( l.getNativeKey() );
+        }
+        return w;
+    }
+
+    private static long estimateWeight(String s) {
+        return s == null ? 0 : 48 + 2L * s.length();
+    }
+
+    private static class Entry {
+        final Location[] value;
+        final long weight;
+        final long loaded;
+
+        Entry(Location[] value, long weight, long loaded) {
+            this.value = value;
+            this.weight = weight;
+            this.loaded = loaded;
+        }
+    }
+
+}
@@ -0,0 +1,311 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.ingrid.external.om.Location;
+
+/**
+ * A spatial index over the bounding boxes of locations, to find the locations which
+ * intersect a box within microseconds. The locations are kept in an immutable
+ * {@link PackedRTree}. Added locations are first collected in a small list which
+ * is searched linearly and merged into a new tree when it has grown large enough,
+ * so that single additions do not rebuild the tree each time.
+ * <p>
+ * The locations of a {@link GazetteerSnapshot} are indexed by their record number,
+ * so they stay in the mapped file and only the locations found are created. Added
+ * locations replace those of the snapshot.
+ * <p>
+ * Locations are copied when added and returned, so a caller may modify them.
+ */
+public class LocationIndex {
+
+    private final int nodeSize;
+    private final int mergeSize;
+
+    private volatile Tree tree = new Tree( new Location[0], 2 );
+    // the locations of the snapshot, null if the index was reset with locations
+    private volatile SnapshotTree snapshotTree;
+
+    // locations added since the last merge, by ID
+    private final Map<String, Location> pending = new LinkedHashMap<String, Location>();
+    private volatile int pendingSize;
+
+    /**
+     * @param nodeSize is the number of entries of a node of the tree
+     * @param mergeSize is the minimum number of added locations which are merged into a new tree
+     */
+    public LocationIndex(int nodeSize, int mergeSize) {
+        this.nodeSize = nodeSize;
+        this.mergeSize = Math.max( 1, mergeSize );
+    }
+
+    /**
+     * Replace all locations of the index, e.g. with all locations of a snapshot.
+     */
+    public synchronized void reset(Collection<Location> locations) {
+        Map<String, Location> indexed = new LinkedHashMap<String, Location>();
+        for (Location location : locations) {
+            if (isIndexable( location )) {
+                indexed.put( location.getId(), LocationCache.copy( location ) );
+            }
+        }
+        tree = new Tree( indexed.values().toArray( new Location[0] ), nodeSize );
+        snapshotTree = null;
+        pending.clear();
+        pendingSize = 0;
+    }
+
+    /**
+     * Replace all locations of the index with the locations of a snapshot.
+     */
+    public synchronized void reset(GazetteerSnapshot snapshot) {
+        snapshotTree = new SnapshotTree( snapshot, nodeSize );
+        tree = new Tree( new Location[0], 2 );
+        pending.clear();
+        pendingSize = 0;
+    }
+
+    /**
+     * Add or update locations. Locations without ID or bounding box are ignored.
+     */
+    public void addAll(Location[] locations) {
+        if (locations == null) {
+            return;
+        }
+        synchronized (this) {
+            for (Location location : locations) {
+                if (isIndexable( location )) {
+                    pending.put( location.getId(), LocationCache.copy( location ) );
+                }
+            }
+            pendingSize = pending.size();
+            // merge when the linear search takes about as long as a search in the tree
+            if (pendingSize >= Math.max( mergeSize, tree.locations.length / 8 )) {
+                merge();
+            }
+        }
+    }
+
+    private void merge() {
+        Tree current = tree;
+        List<Location> merged = new ArrayList<Location>( current.locations.length + pending.size() );
+        for (Location location : current.locations) {
+            if (!pending.containsKey( location.getId() )) {
+                merged.add( location );
+            }
+        }
+        merged.addAll( pending.values() );
+        tree = new Tree( merged.toArray( new Location[0] ), nodeSize );
+        pending.clear();
+        pendingSize = 0;
+    }
+
+    /**
+     * @return true if a location with this ID is indexed
+     */
+    public boolean contains(String locationId) {
+        return get( locationId, false ) != null;
+    }
+
+    /**
+     * @return a copy of the indexed location with this ID or null
+     */
+    public Location get(String locationId) {
+        return get( locationId, true );
+    }
+
+    private Location get(String locationId, boolean copy) {
+        if (pendingSize > 0) {
+            synchronized (this) {
+                Location location = pending.get( locationId );
+                if (location != null) {
+                    return copy ? LocationCache.copy( location ) : location;
+                }
+            }
+        }
+        Tree current = tree;
+        Integer index = current.ids.get( locationId );
+        if (index != null) {
+            return copy ? LocationCache.copy( current.locations[index] ) : current.locations[index];
+        }
+        // locations of the snapshot are read into new instances anyway
+        SnapshotTree snapshot = snapshotTree;
+        return snapshot == null ? null : snapshot.snapshot.get( locationId );
+    }
+
+    /**
+     * @return the number of indexed locations, updated locations may be counted twice until merged
+     */
+    public int size() {
+        SnapshotTree snapshot = snapshotTree;
+        return (snapshot == null ? 0 : snapshot.records.length) + tree.locations.length + pendingSize;
+    }
+
+    /**
+     * Get all locations whose bounding box intersects the given box.
+     * @param box is minX, minY, maxX, maxY like {@link Location#getBoundingBox()}
+     * @return the intersecting locations
+     */
+    public List<Location> search(float[] box) {
+        float minX = Math.min( box[0], box[2] );
+        float minY = Math.min( box[1], box[3] );
+        float maxX = Math.max( box[0], box[2] );
+        float maxY = Math.max( box[1], box[3] );
+
+        List<Location> result = new ArrayList<Location>();
+        Tree current = tree;
+        SnapshotTree snapshot = snapshotTree;
+        if (pendingSize == 0) {
+            current.rtree.search( minX, minY, maxX, maxY, i -> result.add( LocationCache.copy( current.locations[i] ) ) );
+            if (snapshot != null) {
+                searchSnapshot( snapshot, current, false, minX, minY, maxX, maxY, result );
+            }
+            return result;
+        }
+        synchronized (this) {
+            // the tree may have been merged meanwhile, a pending location replaces an indexed one
+            Tree merged = tree;
+            merged.rtree.search( minX, minY, maxX, maxY, i -> {
+                Location location = merged.locations[i];
+                if (!pending.containsKey( location.getId() )) {
+                    result.add( LocationCache.copy( location ) );
+                }
+            } );
+            if (snapshotTree != null) {
+                searchSnapshot( snapshotTree, merged, true, minX, minY, maxX, maxY, result );
+            }
+            for (Location location : pending.values()) {
+                if (intersects( getBox( location ), minX, minY, maxX, maxY )) {
+                    result.add( LocationCache.copy( location ) );
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add the intersecting locations of the snapshot, which were not replaced by added ones.
+     * @param withPending defines if the pending locations are checked, which needs the lock
+     */
+    private void searchSnapshot(SnapshotTree snapshot, Tree added, boolean withPending,
+            float minX, float minY, float maxX, float maxY, List<Location> result) {
+        snapshot.rtree.search( minX, minY, maxX, maxY, i -> {
+            Location location = snapshot.snapshot.get( snapshot.records[i] );
+            if (!added.ids.containsKey( location.getId() ) && !(withPending && pending.containsKey( location.getId() ))) {
+                result.add( location );
+            }
+        } );
+    }
+
+    private static boolean intersects(float[] box, float minX, float minY, float maxX, float maxY) {
+        return !(maxX < box[0] || maxY < box[1] || minX > box[2] || minY > box[3]);
+    }
+
+    private static boolean isIndexable(Location location) {
+        if (location == null || location.getId() == null) {
+            return false;
+        }
+        return isIndexable( location.getBoundingBox() );
+    }
+
+    private static boolean isIndexable(float[] box) {
+        if (box == null || box.length < 4) {
+            return false;
+        }
+        for (int i = 0; i < 4; i++) {
+            if (Float.isNaN( box[i] )) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the bounding box with the minimum first, independent of the order of the corners
+     */
+    static float[] getBox(Location location) {
+        float[] box = location.getBoundingBox();
+        return new float[] { Math.min( box[0], box[2] ), Math.min( box[1], box[3] ),
+                Math.max( box[0], box[2] ), Math.max( box[1], box[3] ) };
+    }
+
+    /**
+     * The packed tree of the boxes of a snapshot, the index in the tree is the index
+     * of the record number.
+     */
+    private static class SnapshotTree {
+        final GazetteerSnapshot snapshot;
+        final int[] records;
+        final PackedRTree rtree;
+
+        SnapshotTree(GazetteerSnapshot snapshot, int nodeSize) {
+            this.snapshot = snapshot;
+            int[] indexed = new int[snapshot.size()];
+            float[] boxes = new float[snapshot.size() * 4];
+            float[] box = new float[4];
+            int count = 0;
+            for (int record = 0; record < snapshot.size(); record++) {
+                snapshot.getBoundingBox( record, box );
+                if (isIndexable( box )) {
+                    indexed[count] = record;
+                    boxes[4 * count] = Math.min( box[0], box[2] );
+                    boxes[4 * count + 1] = Math.min( box[1], box[3] );
+                    boxes[4 * count + 2] = Math.max( box[0], box[2] );
+                    boxes[4 * count + 3] = Math.max( box[1], box[3] );
+                    count++;
+                }
+            }
+            this.records = count == indexed.length ? indexed : Arrays.copyOf( indexed, count );
+            this.rtree = new PackedRTree( count == indexed.length ? boxes : Arrays.copyOf( boxes, 4 * count ), nodeSize );
+        }
+    }
+
+    /**
+     * The locations and their packed tree, the index in the tree is the index of the array.
+     */
+    private static class Tree {
+        final Location[] locations;
+        final Map<String, Integer> ids;
+        final PackedRTree rtree;
+
+        Tree(Location[] locations, int nodeSize) {
+            this.locations = locations;
+            this.ids = new HashMap<String, Integer>( locations.length * 2 );
+            float[] boxes = new float[locations.length * 4];
+            for (int i = 0; i < locations.length; i++) {
+                ids.put( locations[i].getId(), i );
+                System.arraycopy( getBox( locations[i] ), 0, boxes, 4 * i, 4 );
+            }
+            this.rtree = new PackedRTree( boxes, nodeSize );
+        }
+    }
+
+}
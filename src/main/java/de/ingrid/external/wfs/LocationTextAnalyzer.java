@@ -0,0 +1,138 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Extracts the candidates for location names from a free text. The text is split
+ * into words and every sequence of up to a maximum number of words is a candidate,
+ * if it neither starts nor ends with a stop word. A sequence never spans over
+ * punctuation or numbers, since a name does not either.
+ */
+final class LocationTextAnalyzer {
+
+    private final Set<String> stopWords;
+    private final int minLength;
+
+    /**
+     * @param stopWords are the words which are no names and do not start or end a name
+     * @param minLength is the minimum number of characters of a name with a single word
+     */
+    LocationTextAnalyzer(Collection<String> stopWords, int minLength) {
+        this.stopWords = new HashSet<String>();
+        for (String stopWord : stopWords) {
+            String word = stopWord.trim();
+            if (!word.isEmpty()) {
+                this.stopWords.add( word.toLowerCase( Locale.ROOT ) );
+            }
+        }
+        this.minLength = minLength;
+    }
+
+    /**
+     * Get the distinct candidates in the order of their occurrence in the text.
+     * @param text is the text to analyze
+     * @param maxWords is the maximum number of words of a candidate
+     * @param ignoreCase returns the candidates in lower case, otherwise only candidates
+     *                   starting with an upper case letter are returned as they are
+     * @return the candidates with the words separated by a single space
+     */
+    List<String> getCandidates(String text, int maxWords, boolean ignoreCase) {
+        Set<String> candidates = new LinkedHashSet<String>();
+        if (text == null) {
+            return new ArrayList<String>();
+        }
+
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = new StringBuilder();
+        boolean letters = false;
+        int length = text.length();
+        for (int i = 0; i < length;) {
+            int c = text.codePointAt( i );
+            int next = i + Character.charCount( c );
+            if (Character.isLetterOrDigit( c )) {
+                word.appendCodePoint( c );
+                letters |= Character.isLetter( c );
+            } else if (isJoiner( c ) && word.length() > 0 && next < length && Character.isLetterOrDigit( text.codePointAt( next ) )) {
+                // hyphen or apostrophe inside a word, e.g. "Schleswig-Holstein"
+                word.appendCodePoint( c );
+            } else {
+                boolean number = !letters && word.length() > 0;
+                if (letters) {
+                    words.add( word.toString() );
+                }
+                if (number || !Character.isWhitespace( c ) && !isJoiner( c )) {
+                    // numbers and punctuation end the sequence of words
+                    addCandidates( words, maxWords, ignoreCase, candidates );
+                    words.clear();
+                }
+                word.setLength( 0 );
+                letters = false;
+            }
+            i = next;
+        }
+        if (letters) {
+            words.add( word.toString() );
+        }
+        addCandidates( words, maxWords, ignoreCase, candidates );
+
+        return new ArrayList<String>( candidates );
+    }
+
+    private void addCandidates(List<String> words, int maxWords, boolean ignoreCase, Set<String> candidates) {
+        int size = words.size();
+        for (int start = 0; start < size; start++) {
+            String first = words.get( start );
+            if (isStopWord( first ) || (!ignoreCase && !Character.isUpperCase( first.codePointAt( 0 ) ))) {
+                continue;
+            }
+            StringBuilder candidate = new StringBuilder( first );
+            int end = Math.min( size, start + Math.max( 1, maxWords ) );
+            for (int i = start; i < end; i++) {
+                if (i > start) {
+                    candidate.append( ' ' ).append( words.get( i ) );
+                }
+                if (isStopWord( words.get( i ) ) || (i == start && first.length() < minLength)) {
+                    continue;
+                }
+                candidates.add( ignoreCase ? candidate.toString().toLowerCase( Locale.ROOT ) : candidate.toString() );
+            }
+        }
+    }
+
+    private boolean isStopWord(String word) {
+        return stopWords.contains( word.toLowerCase( Locale.ROOT ) );
+    }
+
+    private static boolean isJoiner(int c) {
+        return c == '-' || c == '\'' || c == '’';
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.ingrid.external.wfs.WFSMetrics.Phase;
+
+/**
+ * The counters and histograms of the requests of one operation.
+ */
+public class OperationStatistics implements OperationStatisticsMXBean {
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder features = new LongAdder();
+    private final LongAdder mappingFailures = new LongAdder();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram[] phases = new LatencyHistogram[Phase.values().length];
+
+    public OperationStatistics() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new LatencyHistogram();
+        }
+    }
+
+    void recordPhase(Phase phase, long nanos) {
+        phases[phase.ordinal()].record( nanos );
+    }
+
+    void recordRequest(long nanos, long bytes, int features, int mappingFailures, boolean failed) {
+        total.record( nanos );
+        this.bytes.add( bytes );
+        this.features.add( features );
+        this.mappingFailures.add( mappingFailures );
+        if (failed) {
+            errors.increment();
+        }
+    }
+
+    @Override
+    public long getRequestCount() {
+        return total.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getErrorRate() {
+        long requests = total.getCount();
+        return requests == 0 ? 0 : (double) errors.sum() / requests;
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getFeatureCount() {
+        return features.sum();
+    }
+
+    @Override
+    public long getMappingFailureCount() {
+        return mappingFailures.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return total.getMean() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return total.getPercentile( 0.5 ) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return total.getPercentile( 0.99 ) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return total.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseMeanMillis() {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for (Phase phase : Phase.values()) {
+            result.put( phase.name(), phases[phase.ordinal()].getMean() / NANOS_PER_MILLI );
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseP99Millis() {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for (Phase phase : Phase.values()) {
+            result.put( phase.name(), phases[phase.ordinal()].getPercentile( 0.99 ) / NANOS_PER_MILLI );
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        errors.reset();
+        bytes.reset();
+        features.reset();
+        mappingFailures.reset();
+        total.reset();
+        for (LatencyHistogram phase : phases) {
+            phase.reset();
+        }
+    }
+
+}
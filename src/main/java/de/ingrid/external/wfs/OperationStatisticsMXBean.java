@@ -0,0 +1,68 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.util.Map;
+
+/**
+ * The statistics of the requests of one operation of the WFS Service, exposed via JMX.
+ * Durations are in milliseconds.
+ */
+public interface OperationStatisticsMXBean {
+
+    long getRequestCount();
+
+    long getErrorCount();
+
+    /**
+     * @return the share of failed requests between 0 and 1
+     */
+    double getErrorRate();
+
+    long getBytesReceived();
+
+    long getFeatureCount();
+
+    long getMappingFailureCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    /**
+     * @return the mean duration of each phase
+     */
+    Map<String, Double> getPhaseMeanMillis();
+
+    /**
+     * @return the 99th percentile of the duration of each phase
+     */
+    Map<String, Double> getPhaseP99Millis();
+
+    void reset();
+
+}
@@ -0,0 +1,193 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * An immutable R-tree over bounding boxes, bulk loaded with the Sort-Tile-Recursive
+ * algorithm. All nodes are packed level by level into one float array with four
+ * values per box and one int array, which holds the item index for a leaf entry
+ * and the position of the first child for an inner entry. There is no object per
+ * node, so a search only walks through primitive arrays.
+ */
+final class PackedRTree {
+
+    static final int DEFAULT_NODE_SIZE = 16;
+
+    private final int nodeSize;
+    private final int numItems;
+    // minX, minY, maxX, maxY of all entries, the leaves first and the root last
+    private final float[] boxes;
+    private final int[] indices;
+    // the end position of each level, the leaves are level 0
+    private final int[] levelBounds;
+
+    /**
+     * @param items are the boxes of the items with four values each: minX, minY, maxX, maxY
+     * @param nodeSize is the maximum number of entries of a node
+     */
+    PackedRTree(float[] items, int nodeSize) {
+        if (items.length % 4 != 0) {
+            throw new IllegalArgumentException( "Four values are needed per box" );
+        }
+        this.nodeSize = Math.max( 2, nodeSize );
+        this.numItems = items.length / 4;
+
+        int count = numItems;
+        int numNodes = count;
+        int[] bounds = new int[32];
+        int levels = 0;
+        bounds[levels++] = numNodes;
+        while (count > 1) {
+            count = (count + this.nodeSize - 1) / this.nodeSize;
+            numNodes += count;
+            bounds[levels++] = numNodes;
+        }
+        this.levelBounds = Arrays.copyOf( bounds, levels );
+        this.boxes = new float[numNodes * 4];
+        this.indices = new int[numNodes];
+
+        System.arraycopy( items, 0, boxes, 0, items.length );
+        for (int i = 0; i < numItems; i++) {
+            indices[i] = i;
+        }
+
+        int start = 0;
+        for (int level = 0; level < levels - 1; level++) {
+            int end = levelBounds[level];
+            sortTiles( start, end );
+            // pack consecutive entries of the sorted level into the nodes of the next level
+            int parent = end;
+            for (int pos = start; pos < end; pos += this.nodeSize, parent++) {
+                int last = Math.min( pos + this.nodeSize, end );
+                float minX = Float.POSITIVE_INFINITY;
+                float minY = Float.POSITIVE_INFINITY;
+                float maxX = Float.NEGATIVE_INFINITY;
+                float maxY = Float.NEGATIVE_INFINITY;
+                for (int i = pos; i < last; i++) {
+                    minX = Math.min( minX, boxes[4 * i] );
+                    minY = Math.min( minY, boxes[4 * i + 1] );
+                    maxX = Math.max( maxX, boxes[4 * i + 2] );
+                    maxY = Math.max( maxY, boxes[4 * i + 3] );
+                }
+                boxes[4 * parent] = minX;
+                boxes[4 * parent + 1] = minY;
+                boxes[4 * parent + 2] = maxX;
+                boxes[4 * parent + 3] = maxY;
+                indices[parent] = pos;
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Order the entries of a level in tiles: vertical slices by the center x and
+     * within each slice by the center y, so that a node covers a compact area.
+     */
+    private void sortTiles(int start, int end) {
+        int n = end - start;
+        int nodes = (n + nodeSize - 1) / nodeSize;
+        int sliceSize = nodeSize * (int) Math.ceil( Math.sqrt( nodes ) );
+
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = sortKey( boxes[4 * (start + i)] + boxes[4 * (start + i) + 2], i );
+        }
+        Arrays.sort( keys );
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = (int) keys[i];
+        }
+        for (int slice = 0; slice < n; slice += sliceSize) {
+            int sliceEnd = Math.min( n, slice + sliceSize );
+            for (int i = slice; i < sliceEnd; i++) {
+                int entry = start + order[i];
+                keys[i] = sortKey( boxes[4 * entry + 1] + boxes[4 * entry + 3], order[i] );
+            }
+            Arrays.sort( keys, slice, sliceEnd );
+        }
+
+        float[] sortedBoxes = new float[n * 4];
+        int[] sortedIndices = new int[n];
+        for (int i = 0; i < n; i++) {
+            int entry = start + (int) keys[i];
+            System.arraycopy( boxes, 4 * entry, sortedBoxes, 4 * i, 4 );
+            sortedIndices[i] = indices[entry];
+        }
+        System.arraycopy( sortedBoxes, 0, boxes, 4 * start, n * 4 );
+        System.arraycopy( sortedIndices, 0, indices, start, n );
+    }
+
+    /**
+     * Combine a float value and an index into a long which sorts like the value.
+     */
+    private static long sortKey(float value, int index) {
+        int bits = Float.floatToIntBits( value );
+        bits ^= (bits >> 31) & 0x7FFFFFFF;
+        return ((long) bits << 32) | index;
+    }
+
+    int size() {
+        return numItems;
+    }
+
+    /**
+     * Visit all items whose box intersects the given box, including touching boxes.
+     * @param visitor is called with the index of each item
+     */
+    void search(float minX, float minY, float maxX, float maxY, IntConsumer visitor) {
+        if (numItems == 0) {
+            return;
+        }
+        int[] stack = new int[16];
+        int top = 0;
+        int node = boxes.length / 4 - 1;
+        int level = levelBounds.length - 1;
+        while (true) {
+            int end = Math.min( node + nodeSize, levelBounds[level] );
+            for (int pos = node; pos < end; pos++) {
+                int b = 4 * pos;
+                if (maxX < boxes[b] || maxY < boxes[b + 1] || minX > boxes[b + 2] || minY > boxes[b + 3]) {
+                    continue;
+                }
+                if (level == 0) {
+                    visitor.accept( indices[pos] );
+                } else {
+                    if (top + 2 > stack.length) {
+                        stack = Arrays.copyOf( stack, stack.length * 2 );
+                    }
+                    stack[top++] = indices[pos];
+                    stack[top++] = level - 1;
+                }
+            }
+            if (top == 0) {
+                return;
+            }
+            level = stack[--top];
+            node = stack[--top];
+        }
+    }
+
+}
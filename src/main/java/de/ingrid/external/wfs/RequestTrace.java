@@ -0,0 +1,76 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+/**
+ * The measurements of a single request to the WFS, from encoding the request to
+ * mapping the response. It is filled by the client and the mapper in the thread
+ * executing the request, so the fields are not synchronized. All times are in
+ * nanoseconds.
+ */
+final class RequestTrace {
+
+    // the request as sent, for the slow query log
+    final RequestEntity request;
+
+    long encodeNanos;
+    // waiting for a connection of the pool and connecting
+    long connectNanos;
+    // sending the request and waiting for the status line of the response
+    long firstByteNanos;
+    // waiting for the body of the response while it is read
+    long transferNanos;
+    long bytesReceived;
+
+    // the features of the response, including those which could not be mapped
+    int members;
+    int mappingFailures;
+    // creating the locations, including the resolution of their type
+    long mapNanos;
+    long typeResolutionNanos;
+
+    RequestTrace(RequestEntity request, long encodeNanos) {
+        this.request = request;
+        this.encodeNanos = encodeNanos;
+    }
+
+    /**
+     * @return the request body as sent to the WFS
+     */
+    String getRequestBody() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            request.writeRequest( out );
+        } catch (IOException e) {
+            return "(" + e + ")";
+        }
+        return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+    }
+
+}
@@ -22,30 +22,54 @@
  */
 package de.ingrid.external.wfs;
 
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.namespace.QName;
 
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
 import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.geotoolkit.ogc.xml.v110.AndType;
+import org.geotoolkit.ogc.xml.v110.BBOXType;
 import org.geotoolkit.ogc.xml.v110.FilterType;
 import org.geotoolkit.ogc.xml.v110.LiteralType;
 import org.geotoolkit.ogc.xml.v110.OrType;
 import org.geotoolkit.ogc.xml.v110.PropertyIsEqualToType;
+import org.geotoolkit.ogc.xml.v110.PropertyIsGreaterThanType;
 import org.geotoolkit.ogc.xml.v110.PropertyIsLikeType;
 import org.geotoolkit.ogc.xml.v110.PropertyNameType;
+import org.geotoolkit.ogc.xml.v110.SortByType;
+import org.geotoolkit.ogc.xml.v110.SortOrderType;
+import org.geotoolkit.ogc.xml.v110.SortPropertyType;
 import org.geotoolkit.wfs.xml.ResultTypeType;
 import org.geotoolkit.wfs.xml.WFSMarshallerPool;
 import org.geotoolkit.wfs.xml.v110.GetFeatureType;
@@ -60,13 +84,34 @@ public class WFSClient {
     private static final String PROPERTY_ID = "gn:nnid";
     private static final String PROPERTY_NAME = "gn:hatEndonym/gn:Endonym/gn:name";
     private static final String PROPERTY_OBJECT_TYPE = "gn:hatObjektart/gn:Objektart/gn:objektart";
+    private static final String PROPERTY_BOX = "gn:box";
+    // the coordinates of this CRS are in the order latitude, longitude
+    private static final String SRS = "urn:ogc:def:crs:EPSG::4258";
+    // a property path like gn:hatEndonym/gn:Endonym/gn:name
+    private static final Pattern PROPERTY_PATH = Pattern.compile( "gn:\\w+(/gn:\\w+)*" );
 
     // the URL to the service
     private String url;
 
-    private List<String> properties;
+    // shared client with a pool of keep-alive connections to the service
+    private HttpClient httpClient;
+
+    // the requested properties of the features, empty for complete features
+    private volatile List<String> properties;
     private String[] types;
-    private Marshaller marshaller;
+
+    // whether the response may be compressed with gzip or deflate
+    private boolean compression = true;
+
+    // precompiled requests, only the literal value is inserted per call
+    private volatile WFSRequestEncoder getEncoder;
+    private volatile WFSRequestEncoder getListEncoder;
+    private volatile WFSRequestEncoder findEncoder;
+    private volatile WFSRequestEncoder findNamesEncoder;
+    private volatile WFSRequestEncoder findNamesIgnoreCaseEncoder;
+    // created on the first harvest request for the used page size
+    private volatile WFSRequestEncoder harvestEncoder;
+    private volatile int harvestPageSize;
 
     private static String wildcard = "*";
     private static String singleChar = "?";
@@ -75,30 +120,190 @@ public class WFSClient {
     private static QName qName = new QName( "http://www.geodatenzentrum.de/gnde", "GnObjekt", "gn" );
 
     public WFSClient(String wfsUrl, String[] properties, String[] types) throws JAXBException {
+        this( wfsUrl, properties, types, createHttpClient( 20, 5000, 20000, 5000 ) );
+    }
+
+    public WFSClient(String wfsUrl, String[] properties, String[] types, HttpClient httpClient) throws JAXBException {
         this.url = wfsUrl;
-        this.properties = new ArrayList<String>(); // Arrays.asList( properties ); // convertPropertiesToNames(
-                                                       // properties );
         this.types = types;
-        this.marshaller = WFSMarshallerPool.getInstance().acquireMarshaller();
+        this.httpClient = httpClient;
+        setProperties( getProjection( properties ) );
     }
 
-    public InputStream getLocation(String locationId, Locale locale) {
+    /**
+     * Validate the configured properties, which are requested instead of the complete
+     * features. Invalid properties are ignored. The properties read by the {@link WFSMapper}
+     * are always requested in addition, so that the mapping is the same as for complete
+     * features, and paths within another requested property are omitted.
+     * @param configured are the configured property paths, none disable the projection
+     * @return the properties to request or an empty list for complete features
+     */
+    List<String> getProjection(String[] configured) {
+        Set<String> paths = new LinkedHashSet<String>( WFSMapper.PROPERTIES );
+        boolean valid = false;
+        for (String property : configured == null ? new String[0] : configured) {
+            String path = property.trim();
+            if (path.isEmpty()) {
+                continue;
+            }
+            if (PROPERTY_PATH.matcher( path ).matches()) {
+                paths.add( path );
+                valid = true;
+            } else {
+                log.warn( "Ignoring invalid property of WFS requests: " + path );
+            }
+        }
+        if (!valid) {
+            log.info( "Requesting complete features from WFS Service" );
+            return Collections.emptyList();
+        }
 
-        PropertyIsLikeType idFilter = new PropertyIsLikeType( PROPERTY_ID, locationId, wildcard, singleChar, escapeChar );
+        List<String> projection = new ArrayList<String>();
+        for (String path : paths) {
+            if (!isWithin( path, paths )) {
+                projection.add( path );
+            }
+        }
+        return Collections.unmodifiableList( projection );
+    }
 
-        FilterType filterType = new FilterType( idFilter );
+    /**
+     * @return true if the path is part of another one of the paths
+     */
+    private static boolean isWithin(String path, Collection<String> paths) {
+        for (String other : paths) {
+            if (path.startsWith( other + "/" )) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        List<QName> qNames = new ArrayList<QName>();
-        qNames.add( qName );
+    /**
+     * @return the requested properties of the features, empty for complete features
+     */
+    public List<String> getProperties() {
+        return properties;
+    }
 
-        QueryType qType = new QueryType( filterType, qNames, "1.1.0", null, null, properties );
-        List<QueryType> qTypes = new ArrayList<QueryType>();
-        qTypes.add( qType );
+    /**
+     * Change the requested properties and precompile the requests for them.
+     */
+    private synchronized void setProperties(List<String> properties) throws JAXBException {
+        this.properties = properties;
+        this.harvestEncoder = null;
+        Marshaller marshaller = WFSMarshallerPool.getInstance().acquireMarshaller();
+        try {
+            this.getEncoder = new WFSRequestEncoder( marshaller, createGetRequest( WFSRequestEncoder.PLACEHOLDER ) );
+            this.findEncoder = new WFSRequestEncoder( marshaller, createFindRequest( WFSRequestEncoder.PLACEHOLDER ) );
+            List<String> names = Arrays.asList( WFSRequestEncoder.PLACEHOLDER, WFSRequestEncoder.NEXT_PLACEHOLDER );
+            this.getListEncoder = new WFSRequestEncoder( marshaller, createGetRequest( names ) );
+            this.findNamesEncoder = new WFSRequestEncoder( marshaller, createFindNamesRequest( names, true ) );
+            this.findNamesIgnoreCaseEncoder = new WFSRequestEncoder( marshaller, createFindNamesRequest( names, false ) );
+        } finally {
+            WFSMarshallerPool.getInstance().recycle( marshaller );
+        }
+    }
 
-        GetFeatureType gft = new GetFeatureType( "WFS", "1.1.0", null, null, qTypes, ResultTypeType.RESULTS, null, "*", null );
+    /**
+     * Replace the requested properties, if they were not changed concurrently.
+     * @return true if they were replaced
+     */
+    private synchronized boolean replaceProperties(List<String> expected, List<String> properties) {
+        if (this.properties != expected) {
+            return false;
+        }
+        try {
+            setProperties( properties );
+            return true;
+        } catch (JAXBException e) {
+            log.error( "Error creating requests for WFS Service", e );
+            return false;
+        }
+    }
 
+    /**
+     * Request a single feature with the projection to find out if the service supports
+     * the properties, e.g. on startup. If it rejects them, complete features are requested
+     * from now on. If the service is not available, nothing is changed.
+     * @return false if the projection was rejected
+     */
+    public boolean checkProjection() {
+        List<String> projection = properties;
+        if (projection.isEmpty()) {
+            return true;
+        }
+        try (InputStream response = sendRequest( encodeRequest( createGetFeature( new FilterType( createTypeFilter() ), null, 1 ) ),
+                System.nanoTime() )) {
+            if (WFSMapper.isFeatureCollection( response )) {
+                return true;
+            }
+            log.warn( "WFS Service responded to the properties " + projection + " without features, requesting complete features" );
+        } catch (RejectedRequestException e) {
+            log.warn( "WFS Service rejected the properties " + projection + ", requesting complete features: " + e.getMessage() );
+        } catch (Exception e) {
+            log.warn( "Error checking the properties of requests to WFS Service", e );
+            return true;
+        }
+        replaceProperties( projection, Collections.<String>emptyList() );
+        return false;
+    }
+
+    /**
+     * @param compression defines whether the service may compress the responses with gzip or deflate
+     */
+    public void setCompression(boolean compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * Create a HTTP client which keeps a bounded pool of connections alive, so that
+     * consecutive requests do not pay a new TCP/TLS handshake each time. The proxy is
+     * taken from the system properties "http.proxyHost" and "http.proxyPort".
+     * @param maxConnections is the maximum number of parallel connections to the service
+     * @param connectTimeout is the timeout in ms for establishing a connection
+     * @param readTimeout is the timeout in ms waiting for data of the response
+     * @param poolTimeout is the timeout in ms waiting for a free connection of the pool
+     * @return the HTTP client
+     */
+    public static HttpClient createHttpClient(int maxConnections, int connectTimeout, int readTimeout, int poolTimeout) {
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost( maxConnections );
+        params.setMaxTotalConnections( maxConnections );
+        params.setConnectionTimeout( connectTimeout );
+        params.setSoTimeout( readTimeout );
+        params.setStaleCheckingEnabled( true );
+
+        HttpClient client = new HttpClient( connectionManager );
+        client.getParams().setConnectionManagerTimeout( poolTimeout );
+        client.getParams().setSoTimeout( readTimeout );
+        if (System.getProperty("http.proxyHost") != null && System.getProperty("http.proxyPort") != null) {
+            client.getHostConfiguration().setProxy(System.getProperty("http.proxyHost"), Integer.parseInt(System.getProperty("http.proxyPort")));
+        }
+        return client;
+    }
+
+    /**
+     * Close all pooled connections to the service.
+     */
+    public void close() {
+        if (httpClient.getHttpConnectionManager() instanceof MultiThreadedHttpConnectionManager) {
+            ((MultiThreadedHttpConnectionManager) httpClient.getHttpConnectionManager()).shutdown();
+        }
+    }
+
+    /**
+     * Request a location by its ID. The returned stream must be closed by the caller
+     * to give the connection back to the pool.
+     * @param locationId is the ID (gn:nnid) of the location
+     * @param locale is not used yet
+     * @return the response of the WFS or null if the request failed
+     */
+    public InputStream getLocation(String locationId, Locale locale) {
         try {
-            return sendRequest( gft );
+            long start = System.nanoTime();
+            return sendRequest( () -> encodeGetRequest( locationId ), start );
         } catch (Exception e) {
             log.error( "Error getting location from WFS Service", e );
         }
@@ -106,8 +311,146 @@ public class WFSClient {
         return null;
     }
 
+    /**
+     * Request several locations by their IDs with a single request. The returned
+     * stream must be closed by the caller to give the connection back to the pool.
+     * @param locationIds are the IDs (gn:nnid) of the locations, at least one
+     * @param locale is not used yet
+     * @return the response of the WFS or null if the request failed
+     */
+    public InputStream getLocations(Collection<String> locationIds, Locale locale) {
+        try {
+            long start = System.nanoTime();
+            return sendRequest( () -> encodeGetRequest( locationIds ), start );
+        } catch (Exception e) {
+            log.error( "Error getting locations from WFS Service", e );
+        }
+
+        return null;
+    }
+
+    /**
+     * Search locations by their name. The returned stream must be closed by the caller
+     * to give the connection back to the pool.
+     * @param term is the name to search for
+     * @param matching defines how the name is matched, defaults to CONTAINS
+     * @param locale is not used yet
+     * @return the response of the WFS or null if the request failed
+     */
     public InputStream findLocation(String term, MatchingType matching, Locale locale) {
+        try {
+            long start = System.nanoTime();
+            return sendRequest( () -> encodeFindRequest( term, matching ), start );
+        } catch (Exception e) {
+            log.error( "Error searching location in WFS Service", e );
+        }
+
+        return null;
+
+    }
+
+    /**
+     * Search locations by several exact names with a single request. The returned
+     * stream must be closed by the caller to give the connection back to the pool.
+     * @param names are the names to search for, at least one
+     * @param ignoreCase defines if the names are matched case insensitive
+     * @param locale is not used yet
+     * @return the response of the WFS or null if the request failed
+     */
+    public InputStream findLocationsByNames(Collection<String> names, boolean ignoreCase, Locale locale) {
+        try {
+            long start = System.nanoTime();
+            return sendRequest( () -> encodeFindNamesRequest( names, ignoreCase ), start );
+        } catch (Exception e) {
+            log.error( "Error searching locations by names in WFS Service", e );
+        }
+
+        return null;
+    }
+
+    /**
+     * Search the locations of the configured object types whose box intersects the
+     * given box. The returned stream must be closed by the caller to give the
+     * connection back to the pool.
+     * @param box is minX, minY, maxX, maxY like {@link de.ingrid.external.om.Location#getBoundingBox()}
+     * @param maxFeatures is the maximum number of returned locations or null for all
+     * @param locale is not used yet
+     * @return the response of the WFS or null if the request failed
+     */
+    public InputStream findLocationsInBox(float[] box, Integer maxFeatures, Locale locale) {
+        try {
+            long start = System.nanoTime();
+            return sendRequest( () -> encodeRequest( createBoxRequest( box, maxFeatures ) ), start );
+        } catch (Exception e) {
+            log.error( "Error searching locations by box in WFS Service", e );
+        }
+
+        return null;
+    }
+
+    /**
+     * Request the next page of all locations of the configured object types, ordered
+     * by their ID. The returned stream must be closed by the caller to give the
+     * connection back to the pool.
+     * @param afterId is the greatest ID of the previous page or an empty string for the first page
+     * @param pageSize is the maximum number of locations of the page
+     * @return the response of the WFS
+     * @throws IOException if the request failed
+     */
+    public InputStream harvestLocations(String afterId, int pageSize) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return sendRequest( () -> getHarvestEncoder( pageSize ).encode( afterId ), start );
+        } catch (JAXBException e) {
+            throw new IOException( "Error creating harvest request", e );
+        }
+    }
+
+    private WFSRequestEncoder getHarvestEncoder(int pageSize) throws IOException {
+        WFSRequestEncoder encoder = harvestEncoder;
+        if (encoder == null || harvestPageSize != pageSize) {
+            encoder = createHarvestEncoder( pageSize );
+        }
+        return encoder;
+    }
+
+    private synchronized WFSRequestEncoder createHarvestEncoder(int pageSize) throws IOException {
+        if (harvestEncoder == null || harvestPageSize != pageSize) {
+            try {
+                Marshaller marshaller = WFSMarshallerPool.getInstance().acquireMarshaller();
+                try {
+                    harvestEncoder = new WFSRequestEncoder( marshaller, createHarvestRequest( WFSRequestEncoder.PLACEHOLDER, pageSize ) );
+                    harvestPageSize = pageSize;
+                } finally {
+                    WFSMarshallerPool.getInstance().recycle( marshaller );
+                }
+            } catch (JAXBException e) {
+                throw new IOException( "Error creating harvest request", e );
+            }
+        }
+        return harvestEncoder;
+    }
+
+    RequestEntity encodeGetRequest(String locationId) {
+        return getEncoder.encode( locationId );
+    }
+
+    RequestEntity encodeGetRequest(Collection<String> locationIds) {
+        return getListEncoder.encode( locationIds );
+    }
+
+    RequestEntity encodeFindRequest(String term, MatchingType matching) {
+        return findEncoder.encode( toQuery( term, matching ) );
+    }
 
+    RequestEntity encodeFindNamesRequest(Collection<String> names, boolean ignoreCase) {
+        return (ignoreCase ? findNamesIgnoreCaseEncoder : findNamesEncoder).encode( names );
+    }
+
+    /**
+     * Add the wildcards for the matching type to the search term.
+     */
+    static String toQuery(String term, MatchingType matching) {
         // Default to EXACT search
         String query = term;
         if (matching == MatchingType.BEGINS_WITH) {
@@ -115,56 +458,345 @@ public class WFSClient {
         } else if (matching == null || matching == MatchingType.CONTAINS) {
             query = "*" + term + "*";
         }
-        
+        return query;
+    }
+
+    /**
+     * Create the GetFeature request for a location by its ID.
+     */
+    GetFeatureType createGetRequest(String locationId) {
+        // the ID is a key, so it is compared for equality instead of a LIKE match
+        FilterType filterType = new FilterType( createIdFilter( locationId ) );
+
+        return createGetFeature( filterType, null, null );
+    }
+
+    /**
+     * Create the GetFeature request for several locations by their IDs.
+     * @param locationIds are the IDs, combined by OR
+     */
+    GetFeatureType createGetRequest(List<String> locationIds) {
+        List<Object> idFilter = new ArrayList<Object>();
+        for (String locationId : locationIds) {
+            idFilter.add( createIdFilter( locationId ) );
+        }
+
+        FilterType filterType = new FilterType( new OrType( idFilter.toArray() ) );
+
+        return createGetFeature( filterType, null, null );
+    }
+
+    private static PropertyIsEqualToType createIdFilter(String locationId) {
+        return new PropertyIsEqualToType( new LiteralType( locationId ), new PropertyNameType( PROPERTY_ID ), true );
+    }
+
+    /**
+     * Create the GetFeature request for locations by their name.
+     * @param query is the name including wildcards
+     */
+    GetFeatureType createFindRequest(String query) {
         // setup Filter
         PropertyIsLikeType termFilter = new PropertyIsLikeType( PROPERTY_NAME, query, wildcard, singleChar, escapeChar );
         termFilter = new PropertyIsLikeType( termFilter.getExpression(), query, wildcard, singleChar, escapeChar, false );
 
+        // TODO: add filter for language
+
+        // combine filter for term and object types by AND
+        FilterType filterType = new FilterType( new AndType( termFilter, createTypeFilter() ) );
+
+        return createGetFeature( filterType, null, null );
+    }
+
+    /**
+     * Create the GetFeature request for locations by several exact names.
+     * @param names are the names, combined by OR
+     * @param matchCase defines if the names are matched case sensitive
+     */
+    GetFeatureType createFindNamesRequest(List<String> names, boolean matchCase) {
+        List<Object> nameFilter = new ArrayList<Object>();
+        for (String name : names) {
+            nameFilter.add( new PropertyIsEqualToType( new LiteralType( name ),
+                    new PropertyNameType( PROPERTY_NAME ), matchCase ) );
+        }
+
+        FilterType filterType = new FilterType( new AndType( new OrType( nameFilter.toArray() ), createTypeFilter() ) );
+
+        return createGetFeature( filterType, null, null );
+    }
+
+    /**
+     * Create the GetFeature request for locations intersecting a box.
+     * @param box is minX, minY, maxX, maxY in longitude and latitude
+     * @param maxFeatures is the maximum number of returned locations or null for all
+     */
+    GetFeatureType createBoxRequest(float[] box, Integer maxFeatures) {
+        BBOXType boxFilter = new BBOXType( PROPERTY_BOX, box[1], box[0], box[3], box[2], SRS );
+
+        FilterType filterType = new FilterType( new AndType( boxFilter, createTypeFilter() ) );
+
+        return createGetFeature( filterType, null, maxFeatures );
+    }
+
+    /**
+     * Create the GetFeature request for a page of all locations of the configured
+     * object types. The pages are ordered by the ID, so that the next page can be
+     * requested by the greatest ID of the previous one.
+     * @param afterId is the greatest ID of the previous page
+     * @param pageSize is the maximum number of locations of the page
+     */
+    GetFeatureType createHarvestRequest(String afterId, int pageSize) {
+        PropertyIsGreaterThanType idFilter = new PropertyIsGreaterThanType( new LiteralType( afterId ),
+                new PropertyNameType( PROPERTY_ID ), true );
+
+        FilterType filterType = new FilterType( new AndType( idFilter, createTypeFilter() ) );
+        SortByType sortBy = new SortByType( Collections.singletonList( new SortPropertyType( PROPERTY_ID, SortOrderType.ASC ) ) );
+
+        return createGetFeature( filterType, sortBy, pageSize );
+    }
+
+    private OrType createTypeFilter() {
         // add filter for requested object types
         List<Object> filter = new ArrayList<Object>();
         for (String type : this.types) {
             filter.add( new PropertyIsEqualToType( new LiteralType( type ),
                     new PropertyNameType( PROPERTY_OBJECT_TYPE ), true ) );
         }
-        
-        // TODO: add filter for language
 
         // combine object type filter by OR
-        OrType typeFilter = new OrType( filter.toArray() );
-
-        // combine filter for term and object types by AND
-        FilterType filterType = new FilterType( new AndType( termFilter, typeFilter ) );
+        return new OrType( filter.toArray() );
+    }
 
+    private GetFeatureType createGetFeature(FilterType filterType, SortByType sortBy, Integer maxFeatures) {
         List<QName> qNames = new ArrayList<QName>();
         qNames.add( qName );
 
-        QueryType qType = new QueryType( filterType, qNames, "1.1.0", null, null, properties );
+        QueryType qType = new QueryType( filterType, qNames, "1.1.0", null, sortBy, new ArrayList<String>( properties ) );
         List<QueryType> qTypes = new ArrayList<QueryType>();
         qTypes.add( qType );
 
-        GetFeatureType gft = new GetFeatureType( "WFS", "1.1.0", null, null, qTypes, ResultTypeType.RESULTS, null, "*", null );
+        return new GetFeatureType( "WFS", "1.1.0", null, maxFeatures, qTypes, ResultTypeType.RESULTS, null, "*", null );
+    }
 
+    /**
+     * Marshal a request, which is not sent often enough to precompile it.
+     */
+    private static RequestEntity encodeRequest(GetFeatureType request) throws JAXBException {
+        Marshaller marshaller = WFSMarshallerPool.getInstance().acquireMarshaller();
         try {
-            return sendRequest( gft );
-        } catch (Exception e) {
-            log.error( "Error searching location in WFS Service", e );
+            StringWriter writer = new StringWriter();
+            marshaller.marshal( request, writer );
+            return new ByteArrayRequestEntity( writer.toString().getBytes( StandardCharsets.UTF_8 ), "application/xml; charset=UTF-8" );
+        } finally {
+            WFSMarshallerPool.getInstance().recycle( marshaller );
         }
+    }
 
-        return null;
+    /**
+     * Send a request. If the service rejects a request with projection, it is sent again
+     * for complete features, which are requested from now on if that succeeds.
+     * @param request encodes the request for the current properties
+     * @param encodeStart is the time in ns when encoding the request started
+     */
+    private InputStream sendRequest(RequestEncoding request, long encodeStart) throws JAXBException, IOException {
+        List<String> projection = properties;
+        try {
+            return sendRequest( request.encode(), encodeStart );
+        } catch (RejectedRequestException e) {
+            if (projection.isEmpty() || !replaceProperties( projection, Collections.<String>emptyList() )) {
+                throw e;
+            }
+            log.warn( "WFS Service rejected the properties " + projection + ", requesting complete features: " + e.getMessage() );
+        }
 
+        try {
+            return sendRequest( request.encode(), System.nanoTime() );
+        } catch (RejectedRequestException e) {
+            // the request itself is invalid, so the properties were not the reason
+            replaceProperties( Collections.<String>emptyList(), projection );
+            throw e;
+        }
     }
 
-    private InputStream sendRequest(GetFeatureType gft) throws HttpException, IOException, JAXBException {
-        PostMethod pm = new PostMethod( url );
-        StringWriter filterWriter = new StringWriter();
-        marshaller.marshal( gft, filterWriter );
-        pm.setRequestEntity( new StringRequestEntity( filterWriter.toString(), "application/xml", "UTF8" ) );
-        HttpClient client = new HttpClient();
-        if (System.getProperty("http.proxyHost") != null && System.getProperty("http.proxyPort") != null) {
-            client.getHostConfiguration().setProxy(System.getProperty("http.proxyHost"), Integer.parseInt(System.getProperty("http.proxyPort")));
+    /**
+     * @param encodeStart is the time in ns when encoding the request started
+     */
+    private InputStream sendRequest(RequestEntity request, long encodeStart) throws HttpException, IOException {
+        long start = System.nanoTime();
+        RequestTrace trace = new RequestTrace( request, start - encodeStart );
+        TracedPostMethod pm = new TracedPostMethod( url, trace, start );
+        try {
+            pm.setRequestEntity( request );
+            if (compression) {
+                pm.setRequestHeader( "Accept-Encoding", "gzip, deflate" );
+            }
+            int status = httpClient.executeMethod( pm );
+            if (status == HttpStatus.SC_BAD_REQUEST) {
+                throw new RejectedRequestException( "WFS Service responded with: " + pm.getStatusLine() );
+            }
+            if (status != HttpStatus.SC_OK) {
+                throw new HttpException( "WFS Service responded with: " + pm.getStatusLine() );
+            }
+            InputStream body = pm.getResponseBodyAsStream();
+            if (body == null) {
+                throw new HttpException( "WFS Service responded without content" );
+            }
+            return new ResponseInputStream( decode( new TransferInputStream( body, trace ), pm.getResponseHeader( "Content-Encoding" ) ), pm, trace );
+        } catch (IOException | RuntimeException e) {
+            pm.releaseConnection();
+            throw e;
+        }
+    }
+
+    /**
+     * Decompress the body while it is read, if the service compressed it.
+     */
+    private static InputStream decode(InputStream body, Header encoding) throws IOException {
+        String value = encoding == null ? "" : encoding.getValue().trim().toLowerCase( Locale.ROOT );
+        switch (value) {
+        case "gzip":
+        case "x-gzip":
+            return new GZIPInputStream( body, 8192 );
+        case "deflate":
+            // deflate should be wrapped in zlib, but some servers send it raw
+            InputStream in = new BufferedInputStream( body, 8192 );
+            in.mark( 2 );
+            int cmf = in.read();
+            int flg = in.read();
+            in.reset();
+            boolean zlib = flg >= 0 && (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+            Inflater inflater = new Inflater( !zlib );
+            return new InflaterInputStream( in, inflater, 8192 ) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        case "":
+        case "identity":
+            return body;
+        default:
+            throw new HttpException( "WFS Service responded with unsupported encoding: " + value );
+        }
+    }
+
+    /**
+     * @return the measurements of the request of a response returned by this client, or null
+     */
+    static RequestTrace getTrace(InputStream response) {
+        return response instanceof ResponseInputStream ? ((ResponseInputStream) response).trace : null;
+    }
+
+    /**
+     * A POST request which measures the time until it is written, which is the time
+     * to get a connection, and the time until the status line of the response is read.
+     */
+    private static class TracedPostMethod extends PostMethod {
+
+        private final RequestTrace trace;
+        private final long start;
+        private long writeStart;
+
+        TracedPostMethod(String url, RequestTrace trace, long start) {
+            super( url );
+            this.trace = trace;
+            this.start = start;
+        }
+
+        @Override
+        protected void writeRequest(HttpState state, HttpConnection conn) throws IOException, HttpException {
+            writeStart = System.nanoTime();
+            trace.connectNanos = writeStart - start;
+            super.writeRequest( state, conn );
+        }
+
+        @Override
+        protected void readStatusLine(HttpState state, HttpConnection conn) throws IOException, HttpException {
+            super.readStatusLine( state, conn );
+            trace.firstByteNanos = System.nanoTime() - writeStart;
+        }
+    }
+
+    /**
+     * Encodes a request for the current properties.
+     */
+    private interface RequestEncoding {
+        RequestEntity encode() throws JAXBException, IOException;
+    }
+
+    /**
+     * The service responded with 400 Bad Request, e.g. for unknown properties.
+     */
+    private static class RejectedRequestException extends HttpException {
+
+        private static final long serialVersionUID = 1L;
+
+        RejectedRequestException(String message) {
+            super( message );
+        }
+    }
+
+    /**
+     * The decoded body of a response, which gives the connection back to the pool when closed.
+     */
+    private static class ResponseInputStream extends FilterInputStream {
+
+        private PostMethod method;
+        private RequestTrace trace;
+
+        ResponseInputStream(InputStream body, PostMethod method, RequestTrace trace) {
+            super( body );
+            this.method = method;
+            this.trace = trace;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                method.releaseConnection();
+            }
+        }
+    }
+
+    /**
+     * The body of a response as received, before it is decompressed. It measures the
+     * received bytes and the time waiting for them.
+     */
+    private static class TransferInputStream extends FilterInputStream {
+
+        private RequestTrace trace;
+
+        TransferInputStream(InputStream body, RequestTrace trace) {
+            super( body );
+            this.trace = trace;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            trace.transferNanos += System.nanoTime() - start;
+            if (b >= 0) {
+                trace.bytesReceived++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read( b, off, len );
+            trace.transferNanos += System.nanoTime() - start;
+            if (n > 0) {
+                trace.bytesReceived += n;
+            }
+            return n;
         }
-        client.executeMethod( pm );
-        return pm.getResponseBodyAsStream();
     }
 
 }
@@ -24,35 +24,48 @@ package de.ingrid.external.wfs;
 
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.JAXBException;
-import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.geotoolkit.gml.xml.v311.FeaturePropertyType;
-import org.geotoolkit.wfs.xml.v110.FeatureCollectionType;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
 
 import de.ingrid.external.om.Location;
 import de.ingrid.external.om.impl.LocationImpl;
 
 /**
  * This class is used for the mapping of the WFS search responses to a location object.
+ * The response is read in a single pass with a StAX reader, so neither a JAXB context
+ * nor a DOM tree of the (possibly large) feature collection is created.
  * @author André Wallat
  *
  */
 public class WFSMapper {
-    
-    private Logger log = LogManager.getLogger( WFSMapper.class ); 
-    
+
+    private Logger log = LogManager.getLogger( WFSMapper.class );
+
+    static final String NS_WFS = "http://www.opengis.net/wfs";
+    static final String NS_GML = "http://www.opengis.net/gml";
+    static final String NS_GN = "http://www.geodatenzentrum.de/gnde";
+    static final String NS_XLINK = "http://www.w3.org/1999/xlink";
+
+    // the properties of a gn:GnObjekt read by this mapper, requested as projection
+    static final List<String> PROPERTIES = Collections.unmodifiableList( Arrays.asList(
+            "gn:nnid", "gn:ars", "gn:box", "gn:hatEndonym", "gn:hatObjektart" ) );
+
+    // the factory is thread-safe once configured, readers are created per response
+    private static final XMLInputFactory xmlInputFactory = createInputFactory();
+
     private ResourceBundle bundle;
 
 
@@ -60,258 +73,527 @@ public class WFSMapper {
         this.bundle = wfsProps;
     }
 
+    /**
+     * Check the root element of a response without reading the features.
+     * @return true if the response is a feature collection, false e.g. for an exception report
+     */
+    static boolean isFeatureCollection(InputStream response) {
+        XMLStreamReader reader = null;
+        try {
+            reader = xmlInputFactory.createXMLStreamReader( response );
+            reader.nextTag();
+            return NS_WFS.equals( reader.getNamespaceURI() ) && "FeatureCollection".equals( reader.getLocalName() );
+        } catch (XMLStreamException e) {
+            return false;
+        } finally {
+            closeQuietly( reader );
+        }
+    }
+
     /**
      * Extract the locations from a given search result contained in an InputStream.
      * @param response is the result of the WFS request
-     * @return an array of locations
+     * @return an array of locations or null if the response is no feature collection
      */
-    @SuppressWarnings("unchecked")
     public Location[] mapReponseToLocations(InputStream response) {
+        return mapReponseToLocations( response, null );
+    }
+
+    /**
+     * Extract the locations from a given search result and additionally all names of
+     * their endonyms, which are needed to search the locations by name.
+     * @param response is the result of the WFS request
+     * @param names receives the endonym names of each location in the order of the returned locations, may be null
+     * @return an array of locations or null if the response is no feature collection
+     */
+    Location[] mapReponseToLocations(InputStream response, List<List<String>> names) {
+        return mapReponseToLocations( response, names, null );
+    }
+
+    /**
+     * Extract the locations and measure the mapping.
+     * @param trace receives the time for mapping and type resolution, the features and the failed ones, may be null
+     */
+    Location[] mapReponseToLocations(InputStream response, List<List<String>> names, RequestTrace trace) {
+        if (response == null) {
+            log.error( "Error mapping response to location: no response available." );
+            return null;
+        }
+
         List<Location> locations = new ArrayList<Location>();
         Map<String,String[]> typeMap = new HashMap<String, String[]>();
+        XMLStreamReader reader = null;
         try {
-            
-            JAXBContext context = JAXBContext.newInstance(FeatureCollectionType.class);
-            Unmarshaller um = context.createUnmarshaller();
-            FeatureCollectionType value = (FeatureCollectionType)um.unmarshal(response);
+            reader = xmlInputFactory.createXMLStreamReader( response );
+            reader.nextTag();
+            if (!NS_WFS.equals( reader.getNamespaceURI() ) || !"FeatureCollection".equals( reader.getLocalName() )) {
+                log.error( "Error mapping response to location. Unexpected root element: {}", reader.getName() );
+                return null;
+            }
 
-            List<FeaturePropertyType> featureMember = value.getFeatureMember();
-            for (FeaturePropertyType member : featureMember) {
-                try {
-                    Location loc = new LocationImpl();
-                    Element f = (Element) member.getUnknowFeature();
-                    loc.setId( getIdFromFeature( f ) );
-                    loc.setName( getNameFromFeature( f ) );
-                    float[] bbox = getBBoxFromFeature( f );
-                    loc.setBoundingBox( bbox[0], bbox[1], bbox[2],bbox[3] );
-                    // NOT SUPPORTED: loc.setIsExpired( arg0 );
-                    loc.setNativeKey( getNativeKeyFromFeature( f ) );
-                    //                loc.setQualifier( arg0 );
-                    // get the type name from the ID through localization instead of possible value in document
-                    setTypeFromFeature( loc, f, typeMap );
-
-                    locations.add( loc );
-                }
-                catch (Exception e) {
-                    log.warn( "Couldn't map featureMember to location", e );
+            FeatureReader feature = new FeatureReader();
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT && isFeatureMember( reader )) {
+                    mapFeatureMember( reader, feature, locations, names, typeMap, trace );
                 }
             }
-            
+
             // check for typeIds that are references and resolve those correctly
+            long start = trace == null ? 0 : System.nanoTime();
             for (Location l : locations) {
-                String id = l.getTypeId(); 
+                String id = l.getTypeId();
                 if (id != null && id.startsWith( "#" )) {
                     // remove reference char '#' to look in map for
                     String[] typeInfo = typeMap.get( id.substring( 1 ) );
+                    if (typeInfo == null) {
+                        log.warn( "Couldn't resolve type reference of location ... id={}, ref={}", l.getId(), id );
+                        continue;
+                    }
                     l.setTypeId( typeInfo[0] );
                     l.setTypeName( typeInfo[1] );
                 }
             }
-            
+            if (trace != null) {
+                long elapsed = System.nanoTime() - start;
+                trace.typeResolutionNanos += elapsed;
+                trace.mapNanos += elapsed;
+            }
+
             return locations.toArray( new LocationImpl[0] );
-            
-        } catch (JAXBException e) {
+
+        } catch (XMLStreamException e) {
             log.error( "Error mapping response to location.", e );
+        } finally {
+            closeQuietly( reader );
         }
 
         return null;
     }
 
-    
+
     /****************************************
      * HELPER FUNCTIONS
      ****************************************/
-    
-    /**
-     * Extract the bounding box of of two given coordinates, represented
-     * in a document
-     * @param f is the feature node in the document
-     * @return an array of four floats representing the bounding box
-     */
-    private float[] getBBoxFromFeature(Element f) {
-        NodeList coords = f.getElementsByTagName( "gml:pos" );
-        
-        float[] box = null;
-        
-        if (coords.item( 0 ) != null) {
-            box = getBBoxFromPosElement( coords );
-        } else {
-            coords = f.getElementsByTagName( "gml:posList" );
-            box = getBBoxFromPosListElement( coords );
-        }
-        
-        return box;
-    }
-    
-    private float[] getBBoxFromPosElement(NodeList coords) {
-        String[] coord1 = coords.item( 0 ).getTextContent().split( " " );
-        String[] coord2 = coords.item( 1 ).getTextContent().split( " " );
-        
-        float[] box = new float[4];
-        box[0] = Float.valueOf( coord1[0] );
-        box[1] = Float.valueOf( coord1[1] );
-        box[2] = Float.valueOf( coord2[0] );
-        box[3] = Float.valueOf( coord2[1] );
-        
-        return box;
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty( XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE );
+        factory.setProperty( XMLInputFactory.IS_COALESCING, Boolean.FALSE );
+        factory.setProperty( XMLInputFactory.SUPPORT_DTD, Boolean.FALSE );
+        factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE );
+        return factory;
     }
-    
-    private float[] getBBoxFromPosListElement(NodeList coords) {
-        String[] coordsSplitted = coords.item( 0 ).getTextContent().split( " " );
-        
-        float[] box = new float[4];
-      
-        // determine bounding box from polygon by getting min/max values
-        for (int pos=0; pos < coordsSplitted.length; pos+=2) {
-            
-            if (box[1] == 0.0f || box[0] > Float.valueOf( coordsSplitted[pos] )) {
-                box[1] = Float.valueOf( coordsSplitted[pos] );
-            }
-            if (box[0] == 0.0f || box[1] > Float.valueOf( coordsSplitted[pos+1] )) {
-                box[0] = Float.valueOf( coordsSplitted[pos+1] );
-            }
-            
-            if (box[3] < Float.valueOf( coordsSplitted[pos] )) {
-                box[3] = Float.valueOf( coordsSplitted[pos] );
-            }
-            if (box[2] < Float.valueOf( coordsSplitted[pos+1] )) {
-                box[2] = Float.valueOf( coordsSplitted[pos+1] );
-            }
-        }
-        
-        return box;
+
+    private static boolean isFeatureMember(XMLStreamReader reader) {
+        return NS_GML.equals( reader.getNamespaceURI() )
+                && ("featureMember".equals( reader.getLocalName() ) || "featureMembers".equals( reader.getLocalName() ));
     }
-    
+
     /**
-     * Extract the ID from the document and try to determine the type name. First
-     * use the localization through ResourceBundle and otherwise the value inside
-     * the document.
-     * @param loc is the object where the type id and name shall be added to
-     * @param f is the document fragment representing the location
+     * Read a gml:featureMember (or gml:featureMembers) element up to its end tag and
+     * map every inlined feature to a location. A feature that cannot be mapped is
+     * skipped without interrupting the mapping of the other members.
+     * @param reader is positioned on the start tag of the member element
+     * @param feature collects the values of the feature currently read
+     * @param locations receives the mapped locations
+     * @param names receives the endonym names of the mapped locations, may be null
      * @param typeMap is a Map to store references to types
+     * @param trace receives the measurements of the mapping, may be null
      */
-    private void setTypeFromFeature( Location loc, Element f, Map<String, String[]> typeMap ) {
-        NodeList types = f.getElementsByTagName( "gn:Objektart" );
-        Element item = (Element) types.item( 0 );
-        
-        String tId = null,
-                realTypeId = null,
-                tName = null;
-        
-        // get the type ID first
-        if (item != null) {
-            // 
-            NodeList key = item.getElementsByTagName( "gn:schluessel" );
-            realTypeId = key.item( 0 ).getTextContent();
-            try {
-                tId = bundle.getString( "map.id.key." + realTypeId );
-            } catch (MissingResourceException e) {
-                tId = realTypeId;
-            }
-            
-        } else {
-            // try to find out if it has a reference to an already defined type
-            NodeList hasTypes = f.getElementsByTagName( "gn:hatObjektart" );
-            Element hasItem = (Element) hasTypes.item( 0 );
-            String link = hasItem.getAttribute( "xlink:href" );
-            if (link != null) {
-                tId = link;
+    private void mapFeatureMember(XMLStreamReader reader, FeatureReader feature, List<Location> locations, List<List<String>> names,
+            Map<String, String[]> typeMap, RequestTrace trace) throws XMLStreamException {
+        String href = reader.getAttributeValue( NS_XLINK, "href" );
+        boolean hasFeature = false;
+        boolean failed = false;
+        int depth = 1;
+        while (depth > 0) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                if (depth == 2) {
+                    hasFeature = true;
+                    failed = false;
+                    feature.reset();
+                    countMember( trace );
+                }
+                if (!failed) {
+                    try {
+                        feature.startElement( reader, depth );
+                    } catch (RuntimeException e) {
+                        failed = true;
+                        countFailure( trace );
+                        log.warn( "Couldn't map featureMember to location", e );
+                    }
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+                if (!failed) {
+                    feature.characters( reader );
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if (!failed) {
+                    try {
+                        feature.endElement( reader, depth );
+                        if (depth == 2) {
+                            long start = trace == null ? 0 : System.nanoTime();
+                            locations.add( feature.toLocation( typeMap, trace ) );
+                            if (trace != null) {
+                                trace.mapNanos += System.nanoTime() - start;
+                            }
+                            if (names != null) {
+                                names.add( new ArrayList<String>( feature.endonymNames ) );
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        failed = true;
+                        countFailure( trace );
+                        log.warn( "Couldn't map featureMember to location", e );
+                    }
+                }
+                depth--;
+                break;
+            default:
+                break;
             }
         }
-        loc.setTypeId( tId );
-        
-        
-        // get now the type name if it's not a reference (will be handled later with!)
-        if (tId != null && !tId.startsWith( "#" )) {
+
+        if (!hasFeature) {
+            countMember( trace );
+            log.warn( "Couldn't map featureMember to location, it does not contain a feature ... href={}", href );
+        }
+    }
+
+    private static void countMember(RequestTrace trace) {
+        if (trace != null) {
+            trace.members++;
+        }
+    }
+
+    private static void countFailure(RequestTrace trace) {
+        if (trace != null) {
+            trace.mappingFailures++;
+        }
+    }
+
+    private static void closeQuietly(XMLStreamReader reader) {
+        if (reader != null) {
             try {
-                tName = bundle.getString( "gazetteer.de." + realTypeId );
-            } catch (MissingResourceException e) {
-                log.warn("Type name of location not found in ResourceBundle ... id={}", realTypeId);
-                tName = getTypeNameFromFeature( item );
+                reader.close();
+            } catch (XMLStreamException e) {
+                // ignore
             }
-            String[] typeInfo = new String[] { tId, tName };
-            typeMap.put( item.getAttribute( "gml:id" ), typeInfo );
-            loc.setTypeName( tName );
         }
     }
 
     /**
      * Get the name of the type of the location from a search result. The name
      * will be translated according to the used resource bundle.
-     * @param f
+     * @param objektart is the value of gn:objektart
      * @return the type name
      */
-    private String getTypeNameFromFeature(Element f) {
-        NodeList types = f.getElementsByTagName( "gn:objektart" );
+    private String getTypeName(String objektart) {
         // TODO: check if it exists and try to look for "gn:wert" otherwise
-        Element item = (Element) types.item( 0 );
-        if (item != null) {
+        if (objektart != null) {
             try {
-                return bundle.getString( "gazetteer.de." + item.getTextContent() );
+                return bundle.getString( "gazetteer.de." + objektart );
             } catch (MissingResourceException e) {
-                return item.getTextContent();
+                return objektart;
             }
         }
         return null;
     }
-    
+
     /**
-     * Get the native key (AGS) of the location from a search result.
-     * @param f
-     * @return the key
+     * Collects the values needed for a location while the elements of a single
+     * gn:GnObjekt are streamed. For every value the first occurrence in document
+     * order is taken, like the former DOM based mapping did.
      */
-    private String getNativeKeyFromFeature(Element f) {
-        // TODO: add switch for RS-key configured by property
-        NodeList ags = f.getElementsByTagName( "gn:ars" );
-        if (ags.getLength() > 0) {
-            return ags.item( 0 ).getTextContent();
+    private class FeatureReader {
+
+        // which text content is currently collected
+        private static final int NONE = 0;
+        private static final int ID = 1;
+        private static final int ENDONYM_NAME = 2;
+        private static final int SPRACHE_ID = 3;
+        private static final int ARS = 4;
+        private static final int SCHLUESSEL = 5;
+        private static final int OBJEKTART = 6;
+        private static final int POS = 7;
+        private static final int POS_LIST = 8;
+
+        private final StringBuilder text = new StringBuilder( 256 );
+        private int capture;
+        private int captureDepth;
+
+        private String id;
+        private String name;
+        private boolean nameFound;
+        private String nativeKey;
+
+        private int endonymDepth;
+        private String endonymName;
+        private String endonymSpracheId;
+        private final List<String> endonymNames = new ArrayList<String>();
+
+        private boolean objektartFound;
+        private int objektartDepth;
+        private String objektartGmlId;
+        private String schluessel;
+        private String objektart;
+
+        private boolean hatObjektartFound;
+        private String hatObjektartHref;
+
+        // coordinates of the first two gml:pos elements
+        private int posCount;
+        private final float[] pos = new float[4];
+        // bounding box of the first gml:posList element
+        private boolean posListFound;
+        private final float[] posListBox = new float[4];
+
+        void reset() {
+            text.setLength( 0 );
+            capture = NONE;
+            id = null;
+            name = null;
+            nameFound = false;
+            nativeKey = null;
+            endonymDepth = 0;
+            endonymNames.clear();
+            objektartFound = false;
+            objektartDepth = 0;
+            objektartGmlId = null;
+            schluessel = null;
+            objektart = null;
+            hatObjektartFound = false;
+            hatObjektartHref = null;
+            posCount = 0;
+            posListFound = false;
+            for (int i = 0; i < 4; i++) {
+                pos[i] = 0.0f;
+                posListBox[i] = 0.0f;
+            }
         }
-        return null;
-    }
 
-    /**
-     * Get the ID of the location from a search result.
-     * @param f
-     * @return the ID
-     */
-    private String getIdFromFeature(Element f) {
-        return f.getElementsByTagName( "gn:nnid" ).item( 0 ).getTextContent();
-    }
+        void startElement(XMLStreamReader reader, int depth) {
+            String ns = reader.getNamespaceURI();
+            String local = reader.getLocalName();
 
-    /**
-     * Get the name of the location from a search result.
-     * @param f
-     * @return the name IN GERMAN (gn:sprache_ID = 1) or null
-     */
-    private String getNameFromFeature(Element f) {
-        NodeList endonyms = f.getElementsByTagName( "gn:Endonym" );
-        
-        int length = endonyms.getLength();
-        for (int i = 0; i < length; i++) {
-            Element item = (Element) endonyms.item( i );
-            
-            // check Sprache
-            boolean found = false;
-            NodeList spracheIds = item.getElementsByTagName("gn:sprache_ID");
-            String spracheId = null;
-            if (spracheIds.getLength() > 0) {
-                spracheId = spracheIds.item( 0 ).getTextContent();                
+            if (NS_GN.equals( ns )) {
+                switch (local) {
+                case "nnid":
+                    if (id == null) {
+                        startCapture( ID, depth );
+                    }
+                    break;
+                case "Endonym":
+                    if (endonymDepth == 0) {
+                        endonymDepth = depth;
+                        endonymName = null;
+                        endonymSpracheId = null;
+                    }
+                    break;
+                case "name":
+                    if (endonymDepth > 0 && endonymName == null) {
+                        startCapture( ENDONYM_NAME, depth );
+                    }
+                    break;
+                case "sprache_ID":
+                    if (endonymDepth > 0 && endonymSpracheId == null) {
+                        startCapture( SPRACHE_ID, depth );
+                    }
+                    break;
+                case "ars":
+                    // TODO: add switch for RS-key configured by property
+                    if (nativeKey == null) {
+                        startCapture( ARS, depth );
+                    }
+                    break;
+                case "Objektart":
+                    if (!objektartFound) {
+                        objektartFound = true;
+                        objektartDepth = depth;
+                        objektartGmlId = getAttribute( reader, NS_GML, "id" );
+                    }
+                    break;
+                case "schluessel":
+                    if (objektartDepth > 0 && schluessel == null) {
+                        startCapture( SCHLUESSEL, depth );
+                    }
+                    break;
+                case "objektart":
+                    if (objektartDepth > 0 && objektart == null) {
+                        startCapture( OBJEKTART, depth );
+                    }
+                    break;
+                case "hatObjektart":
+                    if (!hatObjektartFound) {
+                        hatObjektartFound = true;
+                        hatObjektartHref = getAttribute( reader, NS_XLINK, "href" );
+                    }
+                    break;
+                default:
+                    break;
+                }
+            } else if (NS_GML.equals( ns )) {
+                if ("pos".equals( local )) {
+                    posCount++;
+                    if (posCount <= 2) {
+                        startCapture( POS, depth );
+                    }
+                } else if ("posList".equals( local ) && !posListFound) {
+                    posListFound = true;
+                    startCapture( POS_LIST, depth );
+                }
+            }
+        }
+
+        void characters(XMLStreamReader reader) {
+            if (capture != NONE) {
+                text.append( reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength() );
+            }
+        }
+
+        void endElement(XMLStreamReader reader, int depth) {
+            if (capture != NONE && depth == captureDepth) {
+                switch (capture) {
+                case ID:
+                    id = text.toString();
+                    break;
+                case ENDONYM_NAME:
+                    endonymName = text.toString();
+                    endonymNames.add( endonymName );
+                    break;
+                case SPRACHE_ID:
+                    endonymSpracheId = text.toString();
+                    break;
+                case ARS:
+                    nativeKey = text.toString();
+                    break;
+                case SCHLUESSEL:
+                    schluessel = text.toString();
+                    break;
+                case OBJEKTART:
+                    objektart = text.toString();
+                    break;
+                case POS:
+                    CoordinateParser.parsePos( text, pos, (posCount - 1) * 2 );
+                    break;
+                case POS_LIST:
+                    CoordinateParser.parsePosListToBox( text, posListBox );
+                    break;
+                default:
+                    break;
+                }
+                capture = NONE;
             }
-            if (spracheId != null) {
-                if ("1".equals( spracheId )) {
-                    found = true;
+
+            if (depth == endonymDepth) {
+                // take the name IN GERMAN (gn:sprache_ID = 1) or of an endonym without gn:sprache_ID
+                if (!nameFound && (endonymSpracheId == null || "1".equals( endonymSpracheId ))) {
+                    if (endonymName == null) {
+                        throw new IllegalStateException( "Endonym without gn:name in feature: " + id );
+                    }
+                    name = endonymName;
+                    nameFound = true;
                 }
+                endonymDepth = 0;
+            } else if (depth == objektartDepth) {
+                objektartDepth = 0;
+            }
+        }
+
+        Location toLocation(Map<String, String[]> typeMap, RequestTrace trace) {
+            if (id == null) {
+                throw new IllegalStateException( "Feature without gn:nnid" );
+            }
+
+            Location loc = new LocationImpl();
+            loc.setId( id );
+            loc.setName( name );
+            float[] bbox = getBBox();
+            loc.setBoundingBox( bbox[0], bbox[1], bbox[2], bbox[3] );
+            // NOT SUPPORTED: loc.setIsExpired( arg0 );
+            loc.setNativeKey( nativeKey );
+            // get the type name from the ID through localization instead of possible value in document
+            if (trace == null) {
+                setType( loc, typeMap );
             } else {
-                // if gn:Endonym without gn:sprache_ID we take this one
-                found = true;
+                long start = System.nanoTime();
+                setType( loc, typeMap );
+                trace.typeResolutionNanos += System.nanoTime() - start;
             }
+            return loc;
+        }
 
-            if (found) {
-                return item.getElementsByTagName( "gn:name" ).item( 0 ).getTextContent();
+        private float[] getBBox() {
+            if (posCount > 0) {
+                if (posCount < 2) {
+                    throw new IllegalStateException( "Only one gml:pos found in feature: " + id );
+                }
+                return pos;
+            } else if (posListFound) {
+                return posListBox;
             }
+            throw new IllegalStateException( "No gml:pos or gml:posList found in feature: " + id );
+        }
+
+        /**
+         * Determine the type ID and try to determine the type name. First
+         * use the localization through ResourceBundle and otherwise the value inside
+         * the document.
+         */
+        private void setType(Location loc, Map<String, String[]> typeMap) {
+            String tId = null,
+                    tName = null;
+
+            // get the type ID first
+            if (objektartFound) {
+                if (schluessel == null) {
+                    throw new IllegalStateException( "Objektart without gn:schluessel in feature: " + id );
+                }
+                try {
+                    tId = bundle.getString( "map.id.key." + schluessel );
+                } catch (MissingResourceException e) {
+                    tId = schluessel;
+                }
+            } else if (hatObjektartFound) {
+                // a reference to an already defined type
+                tId = hatObjektartHref;
+            } else {
+                throw new IllegalStateException( "No gn:hatObjektart found in feature: " + id );
+            }
+            loc.setTypeId( tId );
+
+            // get now the type name if it's not a reference (will be handled later with!)
+            if (!tId.startsWith( "#" )) {
+                if (!objektartFound) {
+                    throw new IllegalStateException( "Invalid type reference '" + tId + "' in feature: " + id );
+                }
+                try {
+                    tName = bundle.getString( "gazetteer.de." + schluessel );
+                } catch (MissingResourceException e) {
+                    log.warn( "Type name of location not found in ResourceBundle ... id={}", schluessel );
+                    tName = getTypeName( objektart );
+                }
+                String[] typeInfo = new String[] { tId, tName };
+                typeMap.put( objektartGmlId, typeInfo );
+                loc.setTypeName( tName );
+            }
+        }
+
+        private void startCapture(int what, int depth) {
+            capture = what;
+            captureDepth = depth;
+            text.setLength( 0 );
+        }
+
+        private String getAttribute(XMLStreamReader reader, String ns, String name) {
+            String value = reader.getAttributeValue( ns, name );
+            return value == null ? "" : value;
         }
-        
-        return null;
     }
 
 }
@@ -0,0 +1,65 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+/**
+ * Receives the measurements of the requests to the WFS Service, e.g. to forward
+ * them to a monitoring system. The default {@link WFSStatistics} keeps them in
+ * histograms exposed via JMX. Implementations are called concurrently by all
+ * threads of the service and must not block.
+ */
+public interface WFSMetrics {
+
+    /**
+     * The operation of the service a request was sent for.
+     */
+    enum Operation {
+        FIND, GET, TEXT, BATCH, RELATED
+    }
+
+    /**
+     * The phases of a request. The body is parsed while it is received, so the time
+     * waiting for data is TRANSFER and the remaining time of the parser is PARSE.
+     */
+    enum Phase {
+        ENCODE, CONNECT, FIRST_BYTE, TRANSFER, PARSE, MAP, TYPE_RESOLUTION
+    }
+
+    /**
+     * @param operation is the operation the request was sent for
+     * @param phase is the measured phase
+     * @param nanos is the duration of the phase
+     */
+    void recordPhase(Operation operation, Phase phase, long nanos);
+
+    /**
+     * @param operation is the operation the request was sent for
+     * @param nanos is the total duration of the request
+     * @param bytes are the bytes received with the response
+     * @param features is the number of mapped locations
+     * @param mappingFailures is the number of features which could not be mapped
+     * @param failed is true if the request failed or the response was no feature collection
+     */
+    void recordRequest(Operation operation, long nanos, long bytes, int features, int mappingFailures, boolean failed);
+
+}
@@ -0,0 +1,206 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.geotoolkit.wfs.xml.v110.GetFeatureType;
+
+/**
+ * Encodes GetFeature requests which only differ in a single literal value. The
+ * request is marshalled once with JAXB, using a placeholder for the value, and
+ * split into the bytes before and after it. Each request then only writes these
+ * bytes and the XML-escaped value, so the encoder can be shared by all threads.
+ * <p>
+ * Requests with a list of values, e.g. OR'ed comparisons, are marshalled with two
+ * list items, {@link #PLACEHOLDER} and {@link #NEXT_PLACEHOLDER}. The bytes between
+ * both are repeated between all values of a request.
+ */
+class WFSRequestEncoder {
+
+    // marker for the variable value, it must not be changed by the marshaller
+    static final String PLACEHOLDER = "WFS_REQUEST_ENCODER_PLACEHOLDER";
+    // marker for the second value of a list template
+    static final String NEXT_PLACEHOLDER = "WFS_REQUEST_ENCODER_NEXT_PLACEHOLDER";
+
+    private static final String CONTENT_TYPE = "application/xml; charset=UTF-8";
+
+    private final byte[] prefix;
+    // the bytes between two values of a list, null if the template has a single value
+    private final byte[] separator;
+    private final byte[] suffix;
+
+    /**
+     * @param marshaller is used to marshal the template, it is not kept
+     * @param template is the request containing {@link #PLACEHOLDER} as the only variable value
+     *                 or followed by {@link #NEXT_PLACEHOLDER} as the second value of a list
+     */
+    WFSRequestEncoder(Marshaller marshaller, GetFeatureType template) throws JAXBException {
+        StringWriter writer = new StringWriter();
+        marshaller.marshal( template, writer );
+        String xml = writer.toString();
+
+        int pos = xml.indexOf( PLACEHOLDER );
+        if (pos == -1 || pos != xml.lastIndexOf( PLACEHOLDER )) {
+            throw new IllegalStateException( "Placeholder must occur exactly once in request template: " + xml );
+        }
+        int next = xml.indexOf( NEXT_PLACEHOLDER );
+        if (next != xml.lastIndexOf( NEXT_PLACEHOLDER ) || (next != -1 && next < pos)) {
+            throw new IllegalStateException( "Next placeholder must occur once after the placeholder in request template: " + xml );
+        }
+        this.prefix = xml.substring( 0, pos ).getBytes( StandardCharsets.UTF_8 );
+        if (next == -1) {
+            this.separator = null;
+            this.suffix = xml.substring( pos + PLACEHOLDER.length() ).getBytes( StandardCharsets.UTF_8 );
+        } else {
+            this.separator = xml.substring( pos + PLACEHOLDER.length(), next ).getBytes( StandardCharsets.UTF_8 );
+            this.suffix = xml.substring( next + NEXT_PLACEHOLDER.length() ).getBytes( StandardCharsets.UTF_8 );
+        }
+    }
+
+    /**
+     * Create the request with the given value in place of the placeholder.
+     * @param value is the literal value, which will be XML-escaped
+     * @return the request ready to be sent
+     */
+    RequestEntity encode(String value) {
+        if (separator != null) {
+            throw new IllegalStateException( "Encoder of a list template needs a list of values" );
+        }
+        return new Request( escape( value ) );
+    }
+
+    /**
+     * Create the request with the given values in place of the list items. A single
+     * value is repeated, since the template always contains two items.
+     * @param values are the literal values, which will be XML-escaped
+     * @return the request ready to be sent
+     */
+    RequestEntity encode(Collection<String> values) {
+        if (separator == null) {
+            throw new IllegalStateException( "Encoder of a single value template needs a single value" );
+        }
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException( "At least one value is needed" );
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream( values.size() * (separator.length + 32) );
+        boolean first = true;
+        for (String value : values) {
+            if (!first) {
+                out.writeBytes( separator );
+            }
+            out.writeBytes( escape( value ) );
+            first = false;
+        }
+        if (values.size() == 1) {
+            out.writeBytes( separator );
+            out.writeBytes( escape( values.iterator().next() ) );
+        }
+        return new Request( out.toByteArray() );
+    }
+
+    /**
+     * Escape a value like the JAXB marshaller does for text content. Characters which
+     * are not allowed in XML 1.0 are dropped, since the request would be invalid otherwise.
+     */
+    static byte[] escape(String value) {
+        String v = String.valueOf( value );
+        StringBuilder sb = null;
+        int length = v.length();
+        for (int i = 0; i < length; i++) {
+            char c = v.charAt( i );
+            String replacement;
+            switch (c) {
+            case '&':
+                replacement = "&amp;";
+                break;
+            case '<':
+                replacement = "&lt;";
+                break;
+            case '>':
+                replacement = "&gt;";
+                break;
+            case '\r':
+                replacement = "&#xD;";
+                break;
+            default:
+                replacement = (c < 0x20 && c != '\t' && c != '\n') || c == 0xFFFE || c == 0xFFFF ? "" : null;
+                break;
+            }
+            if (replacement != null) {
+                if (sb == null) {
+                    sb = new StringBuilder( length + 16 );
+                    sb.append( v, 0, i );
+                }
+                sb.append( replacement );
+            } else if (sb != null) {
+                sb.append( c );
+            }
+        }
+        return (sb == null ? v : sb.toString()).getBytes( StandardCharsets.UTF_8 );
+    }
+
+    /**
+     * A GetFeature request written directly as UTF-8 bytes to the connection.
+     */
+    class Request implements RequestEntity {
+
+        private final byte[] value;
+
+        private Request(byte[] value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public void writeRequest(OutputStream out) throws IOException {
+            out.write( prefix );
+            out.write( value );
+            out.write( suffix );
+        }
+
+        @Override
+        public long getContentLength() {
+            return prefix.length + value.length + suffix.length;
+        }
+
+        @Override
+        public String getContentType() {
+            return CONTENT_TYPE;
+        }
+    }
+
+}
@@ -22,22 +22,84 @@
  */
 package de.ingrid.external.wfs;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import de.ingrid.external.GazetteerService;
 import de.ingrid.external.om.Location;
+import de.ingrid.external.wfs.WFSMetrics.Operation;
+import de.ingrid.external.wfs.WFSMetrics.Phase;
 
 public class WFSService implements GazetteerService {
     
     private Logger log = LogManager.getLogger( WFSService.class );
+    private Logger slowQueryLog = LogManager.getLogger( WFSService.class.getName() + ".slowQuery" );
     
     WFSClient wfsClient;
     WFSMapper wfsMapper;
+
+    // executes the asynchronous requests, bounded by the size of the connection pool
+    ExecutorService asyncExecutor;
+
+    // caches for the results of the WFS, null if disabled
+    LocationCache<String> findCache;
+    LocationCache<String> locationCache;
+    // results of the names found in texts, separate so that they do not evict the searches
+    LocationCache<String> textCache;
+
+    // IDs per request and parallel requests of a batch lookup
+    int idsPerRequest;
+    int batchParallelism;
+
+    // receives the measurements of all requests
+    WFSMetrics metrics = new WFSStatistics();
+    // requests taking longer are logged with their filter, 0 to disable
+    long slowQueryNanos;
+
+    // bounding boxes of all known locations for the related locations
+    LocationIndex spatialIndex;
+    boolean relatedFallback;
+    // maximum number of locations requested by box, 0 for all
+    int relatedMaxFeatures;
+
+    // extracts the candidates for location names from texts
+    LocationTextAnalyzer textAnalyzer;
+    int namesPerRequest;
+
+    // local snapshot of the gazetteer, null if disabled or not harvested yet
+    volatile GazetteerSnapshot snapshot;
+    GazetteerHarvester harvester;
+    long snapshotMaxAge;
+    ScheduledExecutorService snapshotScheduler;
     
     // Init Method is called by the Spring Framework on initialization
     public void init() throws Exception {
@@ -45,34 +107,594 @@ public class WFSService implements GazetteerService {
         String url = wfsProps.getString( "url" );
         String[] types = wfsProps.getString( "objectTypes" ).split( "," );
         String[] properties = wfsProps.getString( "properties" ).split( "," );
-        wfsClient = new WFSClient( url, properties, types );
+        int maxConnections = getIntProperty( wfsProps, "http.maxConnections", 20 );
+        wfsClient = new WFSClient( url, properties, types, WFSClient.createHttpClient(
+                maxConnections,
+                getIntProperty( wfsProps, "http.connectTimeout", 5000 ),
+                getIntProperty( wfsProps, "http.readTimeout", 20000 ),
+                getIntProperty( wfsProps, "http.poolTimeout", 5000 ) ) );
+        wfsClient.setCompression( Boolean.parseBoolean( getStringProperty( wfsProps, "http.compression", "true" ) ) );
+        wfsClient.checkProjection();
         wfsMapper = new WFSMapper( wfsProps );
+        asyncExecutor = createAsyncExecutor( maxConnections, getIntProperty( wfsProps, "http.asyncQueueSize", 1000 ) );
+
+        slowQueryNanos = TimeUnit.MILLISECONDS.toNanos( getLongProperty( wfsProps, "metrics.slowQueryMillis", 0L ) );
+        if (metrics instanceof WFSStatistics && Boolean.parseBoolean( getStringProperty( wfsProps, "metrics.jmx", "true" ) )) {
+            ((WFSStatistics) metrics).registerMBeans( getStringProperty( wfsProps, "metrics.jmxName", "default" ) );
+        }
+
+        idsPerRequest = Math.max( 1, getIntProperty( wfsProps, "batch.idsPerRequest", 100 ) );
+        batchParallelism = Math.max( 1, getIntProperty( wfsProps, "batch.parallelism", 4 ) );
+
+        spatialIndex = new LocationIndex( getIntProperty( wfsProps, "related.nodeSize", PackedRTree.DEFAULT_NODE_SIZE ),
+                getIntProperty( wfsProps, "related.mergeSize", 256 ) );
+        relatedFallback = Boolean.parseBoolean( getStringProperty( wfsProps, "related.wfsFallback", "true" ) );
+        relatedMaxFeatures = getIntProperty( wfsProps, "related.maxFeatures", 1000 );
+
+        textAnalyzer = new LocationTextAnalyzer( Arrays.asList( getStringProperty( wfsProps, "text.stopWords", "" ).split( "," ) ),
+                getIntProperty( wfsProps, "text.minLength", 2 ) );
+        namesPerRequest = Math.max( 1, getIntProperty( wfsProps, "text.namesPerRequest", 100 ) );
+
+        int cacheEntries = getIntProperty( wfsProps, "cache.maxEntries", 10000 );
+        if (cacheEntries > 0) {
+            long cacheMemory = getLongProperty( wfsProps, "cache.maxMemory", 50000000L );
+            long cacheTtl = getLongProperty( wfsProps, "cache.ttl", 21600L );
+            long cacheStale = getLongProperty( wfsProps, "cache.staleWhileRevalidate", 86400L );
+            findCache = new LocationCache<String>( cacheEntries, cacheMemory, cacheTtl, cacheStale, asyncExecutor );
+            locationCache = new LocationCache<String>( cacheEntries, cacheMemory, cacheTtl, cacheStale, asyncExecutor );
+        }
+        int textCacheEntries = getIntProperty( wfsProps, "text.cacheEntries", 10000 );
+        if (textCacheEntries > 0) {
+            textCache = new LocationCache<String>( textCacheEntries, getLongProperty( wfsProps, "text.cacheMemory", 20000000L ),
+                    getLongProperty( wfsProps, "cache.ttl", 21600L ), 0, asyncExecutor );
+        }
+
+        String snapshotDir = getStringProperty( wfsProps, "snapshot.dir", "" );
+        if (!snapshotDir.isEmpty()) {
+            harvester = new GazetteerHarvester( wfsClient, wfsMapper, Paths.get( snapshotDir ),
+                    getIntProperty( wfsProps, "snapshot.pageSize", 1000 ) );
+            snapshotMaxAge = TimeUnit.SECONDS.toMillis( getLongProperty( wfsProps, "snapshot.maxAge", 604800L ) );
+            if (Files.exists( harvester.getSnapshotFile() )) {
+                try {
+                    setSnapshot( GazetteerSnapshot.open( harvester.getSnapshotFile() ) );
+                } catch (IOException e) {
+                    log.error( "Error opening gazetteer snapshot: " + harvester.getSnapshotFile(), e );
+                }
+            }
+            if (Boolean.parseBoolean( getStringProperty( wfsProps, "snapshot.harvest", "true" ) )) {
+                snapshotScheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+                    Thread thread = new Thread( runnable, "wfs-snapshot-harvester" );
+                    thread.setDaemon( true );
+                    return thread;
+                } );
+                snapshotScheduler.scheduleWithFixedDelay( this::updateSnapshot, 0,
+                        getLongProperty( wfsProps, "snapshot.checkInterval", 3600L ), TimeUnit.SECONDS );
+            }
+        }
+    }
+
+    // Destroy Method is called by the Spring Framework on shutdown
+    public void destroy() {
+        if (snapshotScheduler != null) {
+            // an interrupted harvest is continued on the next start
+            snapshotScheduler.shutdownNow();
+        }
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+        if (wfsClient != null) {
+            wfsClient.close();
+        }
+        if (metrics instanceof WFSStatistics) {
+            ((WFSStatistics) metrics).unregisterMBeans();
+        }
     }
 
     @Override
     public Location[] findLocationsFromQueryTerm(String term, QueryType typeOfQuery, MatchingType matching, Locale locale) {
-        InputStream response = wfsClient.findLocation(term, matching, locale);
-        Location[] locations = wfsMapper.mapReponseToLocations( response );
-        return locations;
+        GazetteerSnapshot current = getSnapshot();
+        if (current != null && term != null) {
+            Location[] locations = current.find( term, matching );
+            if (locations.length > 0) {
+                return locations;
+            }
+        }
+        if (findCache == null) {
+            return findLocations( term, matching, locale );
+        }
+        // the name is matched case insensitive by the WFS
+        String normalizedTerm = term == null ? null : term.trim();
+        String key = getFindKey( String.valueOf( matching == null ? MatchingType.CONTAINS : matching ), locale,
+                normalizedTerm == null ? null : normalizedTerm.toLowerCase( Locale.ROOT ) );
+        return findCache.get( key, () -> {
+            Location[] locations = findLocations( normalizedTerm, matching, locale );
+            if (locations != null) {
+                // found locations can be used for later requests by their ID
+                for (Location location : locations) {
+                    locationCache.put( location.getId(), new Location[] { location } );
+                }
+            }
+            return locations;
+        } );
     }
 
     @Override
     public Location getLocation(String locationId, Locale locale) {
-        InputStream response = wfsClient.getLocation(locationId, locale);
-        Location[] locations = wfsMapper.mapReponseToLocations( response );
+        GazetteerSnapshot current = getSnapshot();
+        if (current != null && locationId != null) {
+            Location location = current.get( locationId );
+            if (location != null) {
+                return location;
+            }
+        }
+        Location[] locations = locationCache == null || locationId == null
+                ? getLocations( locationId, locale )
+                : locationCache.get( locationId, () -> getLocations( locationId, locale ) );
         return (locations != null && locations.length > 0) ? locations[0] : null;
     }
 
+    /**
+     * Get several locations by their IDs. The snapshot and the cache are used first,
+     * the remaining IDs are requested in chunks with OR'ed comparisons of the ID. The
+     * chunks are requested in parallel, but by no more than the configured number of
+     * requests, so that a reindexing does not take all connections of the pool.
+     * @param locationIds are the IDs of the locations
+     * @param locale is not used yet
+     * @return all distinct IDs in the given order mapped to their location, or to null
+     * if the location does not exist or could not be requested
+     */
+    public Map<String, Location> getLocations(Collection<String> locationIds, Locale locale) {
+        Map<String, Location> result = new LinkedHashMap<String, Location>();
+        List<String> requested = new ArrayList<String>();
+        GazetteerSnapshot current = getSnapshot();
+        for (String locationId : locationIds) {
+            if (locationId == null || result.containsKey( locationId )) {
+                continue;
+            }
+            Location location = current == null ? null : current.get( locationId );
+            Location[] cached = location != null || locationCache == null ? null : locationCache.getIfPresent( locationId );
+            if (cached != null && cached.length > 0) {
+                location = cached[0];
+            }
+            result.put( locationId, location );
+            if (location == null && cached == null) {
+                requested.add( locationId );
+            }
+        }
+
+        if (!requested.isEmpty()) {
+            Map<String, Location> found = new ConcurrentHashMap<String, Location>();
+            int chunks = (requested.size() + idsPerRequest - 1) / idsPerRequest;
+            AtomicInteger nextChunk = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch( chunks );
+            Runnable worker = () -> {
+                int chunk;
+                while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                    try {
+                        List<String> ids = requested.subList( chunk * idsPerRequest, Math.min( requested.size(), (chunk + 1) * idsPerRequest ) );
+                        getLocationsChunk( ids, locale, found );
+                    } catch (RuntimeException e) {
+                        log.error( "Error getting locations from WFS Service", e );
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            };
+            // the calling thread works on the chunks as well, the others help if the pool has capacity
+            for (int i = 1; i < Math.min( batchParallelism, chunks ); i++) {
+                try {
+                    asyncExecutor.execute( worker );
+                } catch (RejectedExecutionException e) {
+                    break;
+                }
+            }
+            worker.run();
+            // all chunks are taken now, so only those in progress are waited for, but not for
+            // helpers which have not started yet, e.g. if this runs on a thread of the pool
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            result.putAll( found );
+        }
+
+        List<String> missing = new ArrayList<String>();
+        for (Map.Entry<String, Location> entry : result.entrySet()) {
+            if (entry.getValue() == null) {
+                missing.add( entry.getKey() );
+            }
+        }
+        if (!missing.isEmpty()) {
+            log.warn( "{} of {} locations not found by ID: {}", missing.size(), result.size(), missing );
+        }
+        return result;
+    }
+
+    /**
+     * Request a chunk of locations by their IDs. The result of each ID is cached,
+     * also if the location does not exist, but not if the request failed.
+     */
+    private void getLocationsChunk(List<String> locationIds, Locale locale, Map<String, Location> found) {
+        Location[] locations = request( Operation.BATCH, () -> wfsClient.getLocations( locationIds, locale ), null );
+        if (locations == null) {
+            return;
+        }
+        for (Location location : locations) {
+            if (location.getId() != null) {
+                found.put( location.getId(), location );
+            }
+        }
+        if (locationCache != null) {
+            for (String locationId : locationIds) {
+                Location location = found.get( locationId );
+                locationCache.put( locationId, location == null ? new Location[0] : new Location[] { location } );
+            }
+        }
+    }
+
+    /**
+     * @return the cache of the search results or null if caching is disabled
+     */
+    public LocationCache<String> getFindCache() {
+        return findCache;
+    }
+
+    /**
+     * @return the cache of the locations by ID or null if caching is disabled
+     */
+    public LocationCache<String> getLocationCache() {
+        return locationCache;
+    }
+
+    /**
+     * @return the cache of the names found in texts or null if caching is disabled
+     */
+    public LocationCache<String> getTextCache() {
+        return textCache;
+    }
+
+    /**
+     * @return the snapshot of the gazetteer if it is not older than the configured
+     * maximum age, otherwise null and all requests are sent to the WFS
+     */
+    public GazetteerSnapshot getSnapshot() {
+        GazetteerSnapshot current = snapshot;
+        if (current == null || System.currentTimeMillis() - current.getCreatedAt() > snapshotMaxAge) {
+            return null;
+        }
+        return current;
+    }
+
+    /**
+     * Harvest the gazetteer if there is no snapshot yet or it is about to expire.
+     * Called periodically by the scheduler, so no exception must escape.
+     */
+    void updateSnapshot() {
+        GazetteerSnapshot current = snapshot;
+        // harvest when half of the maximum age is over, so that the snapshot never expires
+        if (current != null && System.currentTimeMillis() - current.getCreatedAt() < snapshotMaxAge / 2) {
+            return;
+        }
+        try {
+            setSnapshot( harvester.harvest() );
+        } catch (IOException | RuntimeException e) {
+            log.error( "Error harvesting gazetteer snapshot, it is continued on the next check", e );
+        }
+    }
+
+    /**
+     * Use a new snapshot, all of its locations replace the ones of the spatial index.
+     */
+    void setSnapshot(GazetteerSnapshot newSnapshot) {
+        spatialIndex.reset( newSnapshot );
+        snapshot = newSnapshot;
+    }
+
+    private Location[] findLocations(String term, MatchingType matching, Locale locale) {
+        return request( Operation.FIND, () -> wfsClient.findLocation( term, matching, locale ), null );
+    }
+
+    private Location[] getLocations(String locationId, Locale locale) {
+        return request( Operation.GET, () -> wfsClient.getLocation( locationId, locale ), null );
+    }
+
+    /**
+     * Asynchronous variant of {@link #findLocationsFromQueryTerm(String, QueryType, MatchingType, Locale)}.
+     * The request is executed by a bounded pool of the service, so that callers can
+     * send several lookups in parallel without blocking their own threads.
+     * @return a future completed with the locations (or null if the request failed)
+     */
+    public CompletableFuture<Location[]> findLocationsFromQueryTermAsync(String term, QueryType typeOfQuery, MatchingType matching, Locale locale) {
+        try {
+            return CompletableFuture.supplyAsync( () -> findLocationsFromQueryTerm( term, typeOfQuery, matching, locale ), asyncExecutor );
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture( e );
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #getLocation(String, Locale)}.
+     * @return a future completed with the location (or null if not found or the request failed)
+     */
+    public CompletableFuture<Location> getLocationAsync(String locationId, Locale locale) {
+        try {
+            return CompletableFuture.supplyAsync( () -> getLocation( locationId, locale ), asyncExecutor );
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture( e );
+        }
+    }
+
+    /**
+     * Find the locations named in a text. All word sequences of up to analyzeMaxWords
+     * words, which do not start or end with a stop word, are looked up as exact names.
+     * With a snapshot this needs no request at all, otherwise the sequences which are
+     * not cached are sent OR'ed in as few requests as possible.
+     * @return the distinct locations in the order of their names in the text
+     */
     @Override
     public Location[] getLocationsFromText(String text, int analyzeMaxWords, boolean ignoreCase, Locale locale) {
-        log.warn( "This function is not supported! -> getLocationsFromText(...) -> using findLocationsFromQueryTerm instead" );
-        return findLocationsFromQueryTerm( text, QueryType.ALL_LOCATIONS, MatchingType.CONTAINS, locale );
+        List<String> candidates = textAnalyzer.getCandidates( text, analyzeMaxWords, ignoreCase );
+        Map<String, Location> locations = new LinkedHashMap<String, Location>();
+
+        GazetteerSnapshot current = getSnapshot();
+        if (current != null) {
+            // the snapshot contains all names, so there is no need to ask the WFS on a miss
+            for (String candidate : candidates) {
+                for (Location location : current.findName( candidate, ignoreCase )) {
+                    locations.putIfAbsent( location.getId(), location );
+                }
+            }
+            return locations.values().toArray( new Location[0] );
+        }
+
+        Map<String, Location[]> found = new HashMap<String, Location[]>();
+        List<String> missing = new ArrayList<String>();
+        for (String candidate : candidates) {
+            Location[] cached = textCache == null ? null : textCache.getIfPresent( getTextKey( candidate, ignoreCase, locale ) );
+            if (cached != null) {
+                found.put( candidate, cached );
+            } else {
+                missing.add( candidate );
+            }
+        }
+        for (int i = 0; i < missing.size(); i += namesPerRequest) {
+            findLocationsByNames( missing.subList( i, Math.min( missing.size(), i + namesPerRequest ) ), ignoreCase, locale, found );
+        }
+
+        for (String candidate : candidates) {
+            Location[] result = found.get( candidate );
+            if (result != null) {
+                for (Location location : result) {
+                    locations.putIfAbsent( location.getId(), location );
+                }
+            }
+        }
+        return locations.values().toArray( new Location[0] );
+    }
+
+    /**
+     * Request the locations of several names at once and assign them to the names by
+     * their endonyms. The result of each name, even an empty one, is cached.
+     */
+    private void findLocationsByNames(List<String> names, boolean ignoreCase, Locale locale, Map<String, Location[]> found) {
+        List<List<String>> endonyms = new ArrayList<List<String>>();
+        Location[] locations = request( Operation.TEXT, () -> wfsClient.findLocationsByNames( names, ignoreCase, locale ), endonyms );
+        if (locations == null) {
+            return;
+        }
+
+        Map<String, List<Location>> byName = new HashMap<String, List<Location>>();
+        for (String name : names) {
+            byName.put( name, new ArrayList<Location>() );
+        }
+        for (int i = 0; i < locations.length; i++) {
+            for (String endonym : endonyms.get( i )) {
+                List<Location> named = byName.get( ignoreCase ? endonym.toLowerCase( Locale.ROOT ) : endonym );
+                if (named != null && !named.contains( locations[i] )) {
+                    named.add( locations[i] );
+                }
+            }
+        }
+        for (String name : names) {
+            Location[] result = byName.get( name ).toArray( new Location[0] );
+            found.put( name, result );
+            if (textCache != null) {
+                textCache.put( getTextKey( name, ignoreCase, locale ), result );
+            }
+        }
+    }
+
+    private static String getTextKey(String name, boolean ignoreCase, Locale locale) {
+        return (ignoreCase ? "IGNORE_CASE" : "MATCH_CASE") + "|" + locale + "|" + name;
     }
 
+    private static String getFindKey(String matching, Locale locale, String term) {
+        return matching + "|" + locale + "|" + term;
+    }
+
+    /**
+     * Get the locations whose bounding box contains or intersects the one of the
+     * given location. They are searched in the spatial index, which contains the
+     * snapshot or all locations returned by the WFS so far. The surroundings of a
+     * location which is not indexed yet are requested from the WFS, if enabled.
+     * @return the related locations, the largest first, so that the containing
+     * locations precede the contained ones; the location itself first if includeFrom
+     */
     @Override
     public Location[] getRelatedLocationsFromLocation(String locationId, boolean includeFrom, Locale locale) {
-        log.warn( "This function is not supported! -> getRelatedLocationsFromLocation(...)" );
-        return new Location[0];
+        if (locationId == null) {
+            return new Location[0];
+        }
+        // check before the location is requested, which adds it to the index
+        Location from = spatialIndex.get( locationId );
+        boolean indexed = from != null;
+        if (!indexed) {
+            from = getLocation( locationId, locale );
+        }
+        if (from == null || from.getBoundingBox() == null) {
+            return new Location[0];
+        }
+
+        float[] box = LocationIndex.getBox( from );
+        List<Location> related;
+        if (!indexed && relatedFallback) {
+            Integer maxFeatures = relatedMaxFeatures > 0 ? relatedMaxFeatures : null;
+            Location[] found = request( Operation.RELATED, () -> wfsClient.findLocationsInBox( box, maxFeatures, locale ), null );
+            related = found == null ? new ArrayList<Location>() : new ArrayList<Location>( Arrays.asList( found ) );
+            if (maxFeatures != null && related.size() >= maxFeatures) {
+                log.warn( "Related locations of {} limited to {} requested by box", locationId, maxFeatures );
+            }
+        } else {
+            related = spatialIndex.search( box );
+        }
+
+        related.removeIf( location -> locationId.equals( location.getId() ) );
+        related.sort( Comparator.comparingDouble( WFSService::getArea ).reversed() );
+        if (includeFrom) {
+            related.add( 0, from );
+        }
+        return related.toArray( new Location[0] );
+    }
+
+    private static double getArea(Location location) {
+        float[] box = location.getBoundingBox();
+        return box == null ? 0 : Math.abs( (double) (box[2] - box[0]) * (box[3] - box[1]) );
+    }
+
+    /**
+     * @return the receiver of the measurements of all requests
+     */
+    public WFSMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Replace the default statistics, e.g. to forward the measurements to a monitoring system.
+     */
+    public void setMetrics(WFSMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Send a request to the WFS, map the response and record the measurements.
+     * @param operation is the operation of the service the request is sent for
+     * @param request sends the request and returns the response or null if it failed
+     * @param names collects the endonyms of each location, may be null
+     * @return the locations or null if the request failed
+     */
+    private Location[] request(Operation operation, Supplier<InputStream> request, List<List<String>> names) {
+        long start = System.nanoTime();
+        InputStream response = request.get();
+        if (response == null) {
+            record( operation, null, null, System.nanoTime() - start, 0 );
+            return null;
+        }
+
+        // only the mapping is measured, closing the response and indexing are not
+        RequestTrace trace = WFSClient.getTrace( response );
+        long mapStart = System.nanoTime();
+        Location[] locations;
+        long end;
+        try {
+            locations = wfsMapper.mapReponseToLocations( response, names, trace );
+            end = System.nanoTime();
+        } finally {
+            close( response );
+        }
+        record( operation, trace, locations, end - start, end - mapStart );
+
+        if (locations != null && spatialIndex != null && getSnapshot() == null) {
+            // all locations of the WFS are indexed, until a snapshot contains them all
+            spatialIndex.addAll( locations );
+        }
+        return locations;
+    }
+
+    /**
+     * Close the response, so that the connection is given back to the pool of the client.
+     */
+    private void close(InputStream response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            log.warn( "Error closing response of WFS Service", e );
+        }
+    }
+
+    /**
+     * @param nanos is the total time of the request
+     * @param mapperNanos is the time of the mapper, which includes the transfer of the body
+     */
+    private void record(Operation operation, RequestTrace trace, Location[] locations, long nanos, long mapperNanos) {
+        try {
+            if (trace != null) {
+                metrics.recordPhase( operation, Phase.ENCODE, trace.encodeNanos );
+                metrics.recordPhase( operation, Phase.CONNECT, trace.connectNanos );
+                metrics.recordPhase( operation, Phase.FIRST_BYTE, trace.firstByteNanos );
+                metrics.recordPhase( operation, Phase.TRANSFER, trace.transferNanos );
+                metrics.recordPhase( operation, Phase.PARSE, Math.max( 0, mapperNanos - trace.transferNanos - trace.mapNanos ) );
+                metrics.recordPhase( operation, Phase.MAP, trace.mapNanos - trace.typeResolutionNanos );
+                metrics.recordPhase( operation, Phase.TYPE_RESOLUTION, trace.typeResolutionNanos );
+            }
+            metrics.recordRequest( operation, nanos, trace == null ? 0 : trace.bytesReceived,
+                    locations == null ? 0 : locations.length, trace == null ? 0 : trace.mappingFailures, locations == null );
+        } catch (RuntimeException e) {
+            log.warn( "Error recording metrics of WFS Service", e );
+        }
+
+        if (slowQueryNanos > 0 && nanos >= slowQueryNanos) {
+            if (trace == null) {
+                slowQueryLog.warn( "Slow {} request failed after {} ms", operation, toMillis( nanos ) );
+            } else {
+                slowQueryLog.warn( "Slow {} request took {} ms (encode {} ms, connect {} ms, first byte {} ms, transfer {} ms,"
+                        + " parse and map {} ms), received {} bytes and {} locations, request: {}",
+                        operation, toMillis( nanos ), toMillis( trace.encodeNanos ), toMillis( trace.connectNanos ),
+                        toMillis( trace.firstByteNanos ), toMillis( trace.transferNanos ), toMillis( mapperNanos - trace.transferNanos ),
+                        trace.bytesReceived, locations == null ? "no" : locations.length, trace.getRequestBody() );
+            }
+        }
+    }
+
+    private static long toMillis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis( nanos );
+    }
+
+    private static ExecutorService createAsyncExecutor(int threads, int queueSize) {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread( runnable, "wfs-service-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>( queueSize ), threadFactory );
+        executor.allowCoreThreadTimeOut( true );
+        return executor;
+    }
+
+    static String getStringProperty(ResourceBundle bundle, String key, String defaultValue) {
+        try {
+            return bundle.getString( key ).trim();
+        } catch (MissingResourceException e) {
+            return defaultValue;
+        }
+    }
+
+    static int getIntProperty(ResourceBundle bundle, String key, int defaultValue) {
+        try {
+            return Integer.parseInt( bundle.getString( key ).trim() );
+        } catch (MissingResourceException e) {
+            return defaultValue;
+        }
+    }
+
+    static long getLongProperty(ResourceBundle bundle, String key, long defaultValue) {
+        try {
+            return Long.parseLong( bundle.getString( key ).trim() );
+        } catch (MissingResourceException e) {
+            return defaultValue;
+        }
     }
 
 }
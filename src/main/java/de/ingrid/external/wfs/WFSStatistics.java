@@ -0,0 +1,118 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * The default {@link WFSMetrics}, which keeps counters and histograms per operation.
+ * They can be registered as MXBeans named
+ * "de.ingrid.external.wfs:type=WFSStatistics,name=default,operation=find" etc.
+ */
+public class WFSStatistics implements WFSMetrics {
+
+    private Logger log = LogManager.getLogger( WFSStatistics.class );
+
+    static final String DOMAIN = "de.ingrid.external.wfs";
+
+    private final Map<Operation, OperationStatistics> operations = new EnumMap<Operation, OperationStatistics>( Operation.class );
+    private final Map<Operation, ObjectName> registered = new EnumMap<Operation, ObjectName>( Operation.class );
+
+    public WFSStatistics() {
+        for (Operation operation : Operation.values()) {
+            operations.put( operation, new OperationStatistics() );
+        }
+    }
+
+    @Override
+    public void recordPhase(Operation operation, Phase phase, long nanos) {
+        operations.get( operation ).recordPhase( phase, nanos );
+    }
+
+    @Override
+    public void recordRequest(Operation operation, long nanos, long bytes, int features, int mappingFailures, boolean failed) {
+        operations.get( operation ).recordRequest( nanos, bytes, features, mappingFailures, failed );
+    }
+
+    public OperationStatistics getStatistics(Operation operation) {
+        return operations.get( operation );
+    }
+
+    /**
+     * Register the statistics of all operations at the platform MBean server. If
+     * another instance uses the name already, e.g. a second service in the same JVM,
+     * a number is appended to the name. Other failures are only logged.
+     * @param name is the value of the "name" key of the object names
+     */
+    public synchronized void registerMBeans(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            String unique = name;
+            for (int i = 2; server.isRegistered( getObjectName( unique, Operation.FIND ) ); i++) {
+                unique = name + "-" + i;
+            }
+            for (Operation operation : Operation.values()) {
+                ObjectName objectName = getObjectName( unique, operation );
+                server.registerMBean( operations.get( operation ), objectName );
+                registered.put( operation, objectName );
+            }
+        } catch (JMException e) {
+            log.warn( "Error registering statistics of WFS Service via JMX", e );
+        }
+    }
+
+    public synchronized void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered.values()) {
+            try {
+                server.unregisterMBean( objectName );
+            } catch (JMException e) {
+                log.warn( "Error unregistering statistics of WFS Service via JMX", e );
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * @return the name the statistics of the operation are registered with or null
+     */
+    public synchronized ObjectName getObjectName(Operation operation) {
+        return registered.get( operation );
+    }
+
+    private static ObjectName getObjectName(String name, Operation operation) throws JMException {
+        return new ObjectName( DOMAIN + ":type=WFSStatistics,name=" + name + ",operation="
+                + operation.name().toLowerCase( Locale.ROOT ) );
+    }
+
+}
@@ -0,0 +1,279 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.arrayContainingInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.net.httpserver.HttpServer;
+
+import de.ingrid.external.GazetteerService.MatchingType;
+import de.ingrid.external.om.Location;
+import de.ingrid.external.om.impl.LocationImpl;
+
+public class GazetteerSnapshotTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void writeMappedResponse() throws Exception {
+        WFSMapper mapper = new WFSMapper( ResourceBundle.getBundle( "wfs" ) );
+        List<List<String>> names = new ArrayList<List<String>>();
+        Location[] mapped;
+        try (InputStream response = WFSMapperTest.getResponse( "hannover.xml" )) {
+            mapped = mapper.mapReponseToLocations( response, names );
+        }
+        assertThat( names.size(), equalTo( mapped.length ) );
+
+        GazetteerSnapshotWriter writer = new GazetteerSnapshotWriter();
+        for (int i = 0; i < mapped.length; i++) {
+            writer.add( mapped[i], names.get( i ) );
+        }
+        writer.write( dir.resolve( "gazetteer.snapshot" ), 1234L );
+        GazetteerSnapshot snapshot = GazetteerSnapshot.open( dir.resolve( "gazetteer.snapshot" ) );
+
+        assertThat( snapshot.size(), equalTo( 2 ) );
+        assertThat( snapshot.getCreatedAt(), equalTo( 1234L ) );
+        for (Location expected : mapped) {
+            Location location = snapshot.get( expected.getId() );
+            assertThat( location.getName(), is( expected.getName() ) );
+            assertThat( location.getNativeKey(), is( expected.getNativeKey() ) );
+            assertThat( location.getTypeId(), is( expected.getTypeId() ) );
+            assertThat( location.getTypeName(), is( expected.getTypeName() ) );
+            assertThat( location.getBoundingBox(), equalTo( expected.getBoundingBox() ) );
+        }
+        assertThat( snapshot.get( "DEBKGGND00000000" ), is( nullValue() ) );
+        assertThat( snapshot.find( "hannover", MatchingType.EXACT ).length, equalTo( 2 ) );
+    }
+
+    @Test
+    void harvestAndContinue() throws Exception {
+        byte[] page;
+        try (InputStream in = WFSMapperTest.getResponse( "hannover.xml" )) {
+            page = in.readAllBytes();
+        }
+        byte[] empty = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\"/>".getBytes( StandardCharsets.UTF_8 );
+        List<String> requests = new CopyOnWriteArrayList<String>();
+
+        // the first page is delivered, the second request fails and succeeds when repeated
+        HttpServer server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        server.createContext( "/wfs", exchange -> {
+            requests.add( new String( exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8 ) );
+            if (requests.size() == 2) {
+                exchange.sendResponseHeaders( 500, -1 );
+                exchange.close();
+                return;
+            }
+            byte[] response = requests.size() == 1 ? page : empty;
+            exchange.sendResponseHeaders( 200, response.length );
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write( response );
+            }
+        } );
+        server.start();
+
+        WFSClient client = new WFSClient( "http://localhost:" + server.getAddress().getPort() + "/wfs",
+                new String[0], new String[] { "AX_Gemeinde", "AX_KreisRegion" } );
+        try {
+            GazetteerHarvester harvester = new GazetteerHarvester( client, new WFSMapper( ResourceBundle.getBundle( "wfs" ) ), dir, 2 );
+            Assertions.assertThrows( IOException.class, () -> harvester.harvest() );
+
+            GazetteerSnapshot snapshot = harvester.harvest();
+            assertThat( requests.size(), equalTo( 3 ) );
+            // the harvest is continued after the last ID of the first page
+            assertThat( requests.get( 2 ), containsString( "DEBKGGND00001EFA" ) );
+            assertThat( snapshot.size(), equalTo( 2 ) );
+            assertThat( snapshot.get( "DEBKGGND00001EA0" ).getName(), is( "Hannover" ) );
+            assertThat( snapshot.getFile(), is( harvester.getSnapshotFile() ) );
+        } finally {
+            client.close();
+            server.stop( 0 );
+        }
+    }
+
+    @Test
+    void stopOnlyOnEmptyPage() throws Exception {
+        // the only feature of the page has no ID, so it cannot be mapped
+        byte[] unmappable = ("<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\""
+                + " xmlns:gn=\"http://www.geodatenzentrum.de/gnde\"><gml:featureMember><gn:GnObjekt/></gml:featureMember></wfs:FeatureCollection>")
+                .getBytes( StandardCharsets.UTF_8 );
+        HttpServer server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        server.createContext( "/wfs", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders( 200, unmappable.length );
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write( unmappable );
+            }
+        } );
+        server.start();
+
+        WFSClient client = new WFSClient( "http://localhost:" + server.getAddress().getPort() + "/wfs",
+                new String[0], new String[] { "AX_Gemeinde", "AX_KreisRegion" } );
+        try {
+            GazetteerHarvester harvester = new GazetteerHarvester( client, new WFSMapper( ResourceBundle.getBundle( "wfs" ) ), dir, 2 );
+            IOException e = Assertions.assertThrows( IOException.class, () -> harvester.harvest() );
+            assertThat( e.getMessage(), containsString( "None of 1 locations" ) );
+        } finally {
+            client.close();
+            server.stop( 0 );
+        }
+    }
+
+    @Test
+    void findByMatchingType() throws Exception {
+        GazetteerSnapshot snapshot = createSnapshot();
+
+        assertThat( ids( snapshot.find( "Münster", MatchingType.EXACT ) ), arrayContainingInAnyOrder( "1" ) );
+        assertThat( ids( snapshot.find( "MÜNSTER", MatchingType.BEGINS_WITH ) ), arrayContainingInAnyOrder( "1", "2" ) );
+        assertThat( ids( snapshot.find( "münster", MatchingType.CONTAINS ) ), arrayContainingInAnyOrder( "1", "2", "3" ) );
+        assertThat( ids( snapshot.find( "ünste", null ) ), arrayContainingInAnyOrder( "1", "2", "3" ) );
+        assertThat( ids( snapshot.find( "Bad", MatchingType.BEGINS_WITH ) ), arrayContainingInAnyOrder( "3" ) );
+        assertThat( ids( snapshot.find( "au", MatchingType.CONTAINS ) ), arrayContainingInAnyOrder( "4" ) );
+        assertThat( snapshot.find( "Berlin", MatchingType.CONTAINS ).length, equalTo( 0 ) );
+    }
+
+    @Test
+    void findByAlternativeName() throws Exception {
+        GazetteerSnapshot snapshot = createSnapshot();
+
+        // the names of all languages are searched, the location keeps its german name
+        Location[] result = snapshot.find( "Monasterium", MatchingType.EXACT );
+        assertThat( ids( result ), arrayContainingInAnyOrder( "1" ) );
+        assertThat( result[0].getName(), is( "Münster" ) );
+    }
+
+    @Test
+    void findName() throws Exception {
+        GazetteerSnapshot snapshot = createSnapshot();
+
+        assertThat( ids( snapshot.findName( "münster", true ) ), arrayContainingInAnyOrder( "1" ) );
+        assertThat( ids( snapshot.findName( "MONASTERIUM", true ) ), arrayContainingInAnyOrder( "1" ) );
+        assertThat( ids( snapshot.findName( "A*B", true ) ), arrayContainingInAnyOrder( "5" ) );
+        // wildcards are no wildcards here
+        assertThat( snapshot.findName( "M?nster", true ).length, equalTo( 0 ) );
+        assertThat( snapshot.findName( "Münste", true ).length, equalTo( 0 ) );
+        // a location with names differing only in case is found once
+        assertThat( ids( snapshot.findName( "aurich", true ) ), arrayContainingInAnyOrder( "4" ) );
+    }
+
+    @Test
+    void findNameMatchingCase() throws Exception {
+        GazetteerSnapshot snapshot = createSnapshot();
+
+        // every name of a location is compared, not only the one of the location
+        assertThat( ids( snapshot.findName( "Münster", false ) ), arrayContainingInAnyOrder( "1" ) );
+        assertThat( ids( snapshot.findName( "Monasterium", false ) ), arrayContainingInAnyOrder( "1" ) );
+        assertThat( ids( snapshot.findName( "AURICH", false ) ), arrayContainingInAnyOrder( "4" ) );
+        assertThat( snapshot.findName( "münster", false ).length, equalTo( 0 ) );
+        assertThat( snapshot.findName( "MONASTERIUM", false ).length, equalTo( 0 ) );
+    }
+
+    @Test
+    void findWithWildcards() throws Exception {
+        GazetteerSnapshot snapshot = createSnapshot();
+
+        assertThat( ids( snapshot.find( "M?nster", MatchingType.EXACT ) ), arrayContainingInAnyOrder( "1" ) );
+        assertThat( ids( snapshot.find( "m*land", MatchingType.EXACT ) ), arrayContainingInAnyOrder( "2" ) );
+        assertThat( ids( snapshot.find( "a\\*b", MatchingType.EXACT ) ), arrayContainingInAnyOrder( "5" ) );
+        assertThat( snapshot.find( "a\\*", MatchingType.EXACT ).length, equalTo( 0 ) );
+    }
+
+    @Test
+    void matchPattern() {
+        assertThat( matches( "*ab*", "xxabyy" ), is( true ) );
+        assertThat( matches( "*ab*", "xxaxbyy" ), is( false ) );
+        assertThat( matches( "a*b*c", "aXbYbZc" ), is( true ) );
+        assertThat( matches( "a*b*c", "aXbYbZ" ), is( false ) );
+        // a single character wildcard matches a character of several bytes
+        assertThat( matches( "?b", "äb" ), is( true ) );
+        assertThat( matches( "??b", "äb" ), is( false ) );
+        assertThat( matches( "*", "" ), is( true ) );
+        assertThat( matches( "?", "" ), is( false ) );
+
+        LikePattern pattern = LikePattern.compile( "Bad M*ster*Eifeler" );
+        assertThat( new String( pattern.getPrefix(), StandardCharsets.UTF_8 ), is( "bad m" ) );
+        assertThat( new String( pattern.getLongestLiteral(), StandardCharsets.UTF_8 ), is( "eifeler" ) );
+    }
+
+    private GazetteerSnapshot createSnapshot() throws Exception {
+        GazetteerSnapshotWriter writer = new GazetteerSnapshotWriter();
+        writer.add( createLocation( "1", "Münster" ), Arrays.asList( "Münster", "Monasterium" ) );
+        writer.add( createLocation( "2", "Münsterland" ), Arrays.asList( "Münsterland" ) );
+        writer.add( createLocation( "3", "Bad Münstereifel" ), Arrays.asList( "Bad Münstereifel" ) );
+        writer.add( createLocation( "4", "Aurich" ), Arrays.asList( "Aurich", "AURICH" ) );
+        writer.add( createLocation( "5", "A*B" ), Arrays.asList( "A*B" ) );
+        // a location is only added once
+        writer.add( createLocation( "1", "Münster" ), Arrays.asList( "Münster" ) );
+        assertThat( writer.size(), equalTo( 5 ) );
+
+        writer.write( dir.resolve( "gazetteer.snapshot" ), System.currentTimeMillis() );
+        return GazetteerSnapshot.open( dir.resolve( "gazetteer.snapshot" ) );
+    }
+
+    private static Location createLocation(String id, String name) {
+        Location location = new LocationImpl();
+        location.setId( id );
+        location.setName( name );
+        location.setTypeId( "use6Type" );
+        location.setTypeName( "Gemeinde" );
+        location.setNativeKey( "0" + id );
+        location.setBoundingBox( 7.0f, 51.0f, 8.0f, 52.0f );
+        return location;
+    }
+
+    private static boolean matches(String query, String value) {
+        byte[] bytes = LikePattern.normalize( value ).getBytes( StandardCharsets.UTF_8 );
+        return LikePattern.compile( query ).matches( ByteBuffer.wrap( bytes ), 0, bytes.length );
+    }
+
+    private static String[] ids(Location[] locations) {
+        String[] ids = new String[locations.length];
+        for (int i = 0; i < locations.length; i++) {
+            ids[i] = locations[i].getId();
+        }
+        return ids;
+    }
+
+}
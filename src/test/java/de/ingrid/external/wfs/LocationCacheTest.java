@@ -0,0 +1,224 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import de.ingrid.external.om.Location;
+import de.ingrid.external.om.impl.LocationImpl;
+
+public class LocationCacheTest {
+
+    private AtomicLong time = new AtomicLong();
+
+    private LocationCache<String> createCache(int maxEntries, long maxWeight) {
+        // refreshes are executed directly
+        return new LocationCache<String>( maxEntries, maxWeight, 60, 600, Runnable::run, time::get );
+    }
+
+    private static Location[] locations(String... ids) {
+        Location[] result = new Location[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            result[i] = new LocationImpl();
+            result[i].setId( ids[i] );
+            result[i].setName( "Name " + ids[i] );
+        }
+        return result;
+    }
+
+    @Test
+    void hitAndMiss() {
+        LocationCache<String> cache = createCache( 10, Long.MAX_VALUE );
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            Location[] result = cache.get( "a", () -> {
+                loads.incrementAndGet();
+                return locations( "1", "2" );
+            } );
+            assertThat( result.length, is( 2 ) );
+        }
+
+        assertThat( loads.get(), is( 1 ) );
+        assertThat( cache.getMissCount(), is( 1L ) );
+        assertThat( cache.getHitCount(), is( 2L ) );
+    }
+
+    @Test
+    void failedRequestNotCached() {
+        LocationCache<String> cache = createCache( 10, Long.MAX_VALUE );
+
+        assertThat( cache.get( "a", () -> null ), is( nullValue() ) );
+        assertThat( cache.size(), is( 0 ) );
+        assertThat( cache.getLoadFailureCount(), is( 1L ) );
+        assertThat( cache.get( "a", () -> locations( "1" ) ).length, is( 1 ) );
+    }
+
+    @Test
+    void expireAndRevalidate() {
+        LocationCache<String> cache = createCache( 10, Long.MAX_VALUE );
+        cache.get( "a", () -> locations( "1" ) );
+
+        // stale: the old value is returned and reloaded in the background
+        time.set( TimeUnit.SECONDS.toNanos( 120 ) );
+        assertThat( cache.get( "a", () -> locations( "2" ) )[0].getId(), is( "1" ) );
+        assertThat( cache.getStaleHitCount(), is( 1L ) );
+        assertThat( cache.get( "a", () -> locations( "3" ) )[0].getId(), is( "2" ) );
+
+        // expired: the value is loaded again
+        time.set( TimeUnit.SECONDS.toNanos( 1000 ) );
+        assertThat( cache.get( "a", () -> locations( "4" ) )[0].getId(), is( "4" ) );
+        assertThat( cache.getMissCount(), is( 2L ) );
+    }
+
+    @Test
+    void evictBySize() {
+        LocationCache<String> cache = createCache( 2, Long.MAX_VALUE );
+        cache.put( "a", locations( "1" ) );
+        cache.put( "b", locations( "2" ) );
+        // access "a" so that "b" is the least recently used entry
+        cache.get( "a", () -> null );
+        cache.put( "c", locations( "3" ) );
+
+        assertThat( cache.size(), is( 2 ) );
+        assertThat( cache.getEvictionCount(), is( 1L ) );
+        assertThat( cache.get( "a", () -> null )[0].getId(), is( "1" ) );
+        assertThat( cache.get( "b", () -> null ), is( nullValue() ) );
+    }
+
+    @Test
+    void evictByWeight() {
+        long weight = LocationCache.estimateWeight( locations( "1" ) );
+        LocationCache<String> cache = createCache( 100, weight * 3 );
+        for (int i = 0; i < 10; i++) {
+            cache.put( "k" + i, locations( "1" ) );
+        }
+
+        assertThat( cache.size(), is( 3 ) );
+        assertThat( cache.getWeight(), equalTo( weight * 3 ) );
+        assertThat( cache.getEvictionCount(), is( 7L ) );
+    }
+
+    @Test
+    void coalesceConcurrentMisses() throws Exception {
+        LocationCache<String> cache = createCache( 10, Long.MAX_VALUE );
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch( 1 );
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try {
+            List<Future<Location[]>> results = new ArrayList<Future<Location[]>>();
+            for (int i = 0; i < threads; i++) {
+                results.add( executor.submit( () -> cache.get( "a", () -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return locations( "1" );
+                } ) ) );
+            }
+            // wait until all callers are waiting for the single request
+            while (cache.getCoalescedCount() + cache.getHitCount() < threads - 1) {
+                Thread.sleep( 10 );
+            }
+            release.countDown();
+
+            for (Future<Location[]> result : results) {
+                assertThat( result.get( 10, TimeUnit.SECONDS )[0].getId(), is( "1" ) );
+            }
+            assertThat( loads.get(), is( 1 ) );
+            assertThat( cache.getCoalescedCount(), greaterThan( 0L ) );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void modifiedLocationsNotCached() {
+        LocationCache<String> cache = createCache( 10, Long.MAX_VALUE );
+        Location[] loaded = locations( "1" );
+        Location[] result = cache.get( "a", () -> loaded );
+        result[0].setName( "changed" );
+        loaded[0].setBoundingBox( 1, 2, 3, 4 );
+
+        result = cache.get( "a", () -> null );
+        assertThat( result[0].getName(), is( "Name 1" ) );
+        assertThat( result[0].getBoundingBox(), is( nullValue() ) );
+        result[0].setName( "changed" );
+        assertThat( cache.getIfPresent( "a" )[0].getName(), is( "Name 1" ) );
+    }
+
+    @Test
+    void errorReleasesCoalescedCallers() throws Exception {
+        LocationCache<String> cache = createCache( 10, Long.MAX_VALUE );
+        CountDownLatch started = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try {
+            Future<Location[]> loading = executor.submit( () -> cache.get( "a", () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new LinkageError( "failed" );
+            } ) );
+            // the second caller waits for the load of the first one
+            started.await( 10, TimeUnit.SECONDS );
+            Future<Location[]> waiting = executor.submit( () -> cache.get( "a", () -> locations( "1" ) ) );
+            while (cache.getCoalescedCount() < 1) {
+                Thread.sleep( 10 );
+            }
+            release.countDown();
+
+            ExecutionException e = assertThrows( ExecutionException.class, () -> waiting.get( 10, TimeUnit.SECONDS ) );
+            assertThat( e.getCause() instanceof LinkageError, is( true ) );
+            assertThrows( ExecutionException.class, () -> loading.get( 10, TimeUnit.SECONDS ) );
+            assertThat( cache.getLoadFailureCount(), is( 1L ) );
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
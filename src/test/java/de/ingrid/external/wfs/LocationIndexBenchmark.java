@@ -0,0 +1,154 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the {@link PackedRTree} with about the number of German administrative
+ * units: 16 Bundesländer, 400 Kreise, 10800 Gemeinden and 8000 Schutzgebiete,
+ * spread as boxes of typical size over the extent of Germany. A search with the box
+ * of a Gemeinde is compared with a linear scan over all boxes.
+ * Run with the main method from the test classpath, it is not part of the unit tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationIndexBenchmark {
+
+    private static final float MIN_X = 5.87f;
+    private static final float MIN_Y = 47.27f;
+    private static final float WIDTH = 9.17f;
+    private static final float HEIGHT = 7.79f;
+
+    private float[] boxes;
+    private float[] queries;
+    private int query;
+    private PackedRTree tree;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random( 1 );
+        float[] laender = grid( 4, 4 );
+        float[] kreise = grid( 20, 20 );
+        float[] gemeinden = grid( 104, 104 );
+        float[] schutzgebiete = new float[8000 * 4];
+        for (int i = 0; i < 8000; i++) {
+            float x = MIN_X + random.nextFloat() * WIDTH;
+            float y = MIN_Y + random.nextFloat() * HEIGHT;
+            schutzgebiete[4 * i] = x;
+            schutzgebiete[4 * i + 1] = y;
+            schutzgebiete[4 * i + 2] = x + random.nextFloat() * 0.1f;
+            schutzgebiete[4 * i + 3] = y + random.nextFloat() * 0.1f;
+        }
+
+        boxes = new float[laender.length + kreise.length + gemeinden.length + schutzgebiete.length];
+        int pos = 0;
+        for (float[] part : new float[][] { laender, kreise, gemeinden, schutzgebiete }) {
+            System.arraycopy( part, 0, boxes, pos, part.length );
+            pos += part.length;
+        }
+        // a little jitter, so that the boxes overlap like real ones
+        for (int i = 0; i < boxes.length; i += 4) {
+            float dx = (boxes[i + 2] - boxes[i]) * 0.1f;
+            float dy = (boxes[i + 3] - boxes[i + 1]) * 0.1f;
+            boxes[i] -= random.nextFloat() * dx;
+            boxes[i + 1] -= random.nextFloat() * dy;
+            boxes[i + 2] += random.nextFloat() * dx;
+            boxes[i + 3] += random.nextFloat() * dy;
+        }
+        queries = gemeinden;
+        tree = new PackedRTree( boxes, PackedRTree.DEFAULT_NODE_SIZE );
+    }
+
+    private static float[] grid(int columns, int rows) {
+        float[] grid = new float[columns * rows * 4];
+        float w = WIDTH / columns;
+        float h = HEIGHT / rows;
+        int i = 0;
+        for (int c = 0; c < columns; c++) {
+            for (int r = 0; r < rows; r++) {
+                grid[i++] = MIN_X + c * w;
+                grid[i++] = MIN_Y + r * h;
+                grid[i++] = MIN_X + (c + 1) * w;
+                grid[i++] = MIN_Y + (r + 1) * h;
+            }
+        }
+        return grid;
+    }
+
+    private int nextQuery() {
+        query = (query + 4 * 7919) % queries.length;
+        return query;
+    }
+
+    @Benchmark
+    public void search(Blackhole blackhole) {
+        int q = nextQuery();
+        tree.search( queries[q], queries[q + 1], queries[q + 2], queries[q + 3], blackhole::consume );
+    }
+
+    @Benchmark
+    public void linearScan(Blackhole blackhole) {
+        int q = nextQuery();
+        for (int i = 0; i < boxes.length; i += 4) {
+            if (!(queries[q + 2] < boxes[i] || queries[q + 3] < boxes[i + 1] || queries[q] > boxes[i + 2] || queries[q + 1] > boxes[i + 3])) {
+                blackhole.consume( i >> 2 );
+            }
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PackedRTree build() {
+        return new PackedRTree( boxes, PackedRTree.DEFAULT_NODE_SIZE );
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include( LocationIndexBenchmark.class.getSimpleName() )
+                .build();
+        new Runner( options ).run();
+    }
+
+}
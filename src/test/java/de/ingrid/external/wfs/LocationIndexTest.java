@@ -0,0 +1,169 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.core.Is.is;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.ingrid.external.om.Location;
+import de.ingrid.external.om.impl.LocationImpl;
+
+public class LocationIndexTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void searchLikeLinearScan() {
+        Random random = new Random( 42 );
+        for (int n : new int[] { 0, 1, 2, 15, 16, 17, 255, 256, 257, 5000 }) {
+            float[] boxes = randomBoxes( random, n );
+            PackedRTree tree = new PackedRTree( boxes, 16 );
+            assertThat( tree.size(), equalTo( n ) );
+
+            for (int q = 0; q < 200; q++) {
+                float[] query = randomBoxes( random, 1 );
+                List<Integer> expected = new ArrayList<Integer>();
+                for (int i = 0; i < n; i++) {
+                    if (!(query[2] < boxes[4 * i] || query[3] < boxes[4 * i + 1] || query[0] > boxes[4 * i + 2] || query[1] > boxes[4 * i + 3])) {
+                        expected.add( i );
+                    }
+                }
+                List<Integer> result = new ArrayList<Integer>();
+                tree.search( query[0], query[1], query[2], query[3], result::add );
+                assertThat( result, containsInAnyOrder( expected.toArray() ) );
+            }
+        }
+    }
+
+    @Test
+    void addAndMerge() {
+        LocationIndex index = new LocationIndex( 4, 3 );
+        index.addAll( new Location[] { createLocation( "land", 7f, 51f, 11f, 54f ), createLocation( "kreis", 9f, 52f, 10f, 53f ) } );
+        // the added locations are found before they are merged
+        assertThat( ids( index.search( new float[] { 9.5f, 52.5f, 9.6f, 52.6f } ) ), containsInAnyOrder( "land", "kreis" ) );
+
+        index.addAll( new Location[] { createLocation( "gemeinde", 9.6f, 52.3f, 9.9f, 52.4f ), createLocation( "insel", 7f, 54.5f, 7.2f, 54.6f ),
+                createLocation( "ohne box", null ) } );
+        assertThat( index.size(), equalTo( 4 ) );
+        assertThat( index.contains( "gemeinde" ), is( true ) );
+        assertThat( index.contains( "ohne box" ), is( false ) );
+        assertThat( ids( index.search( new float[] { 9.7f, 52.35f, 9.8f, 52.36f } ) ), containsInAnyOrder( "land", "kreis", "gemeinde" ) );
+
+        // an updated location replaces the indexed one
+        index.addAll( new Location[] { createLocation( "kreis", 12f, 52f, 13f, 53f ) } );
+        assertThat( ids( index.search( new float[] { 9.7f, 52.35f, 9.8f, 52.36f } ) ), containsInAnyOrder( "land", "gemeinde" ) );
+        assertThat( ids( index.search( new float[] { 12.5f, 52.5f, 12.5f, 52.5f } ) ), containsInAnyOrder( "kreis" ) );
+        assertThat( index.search( new float[] { 0f, 0f, 1f, 1f } ), is( empty() ) );
+
+        index.reset( Arrays.asList( createLocation( "insel", 7f, 54.5f, 7.2f, 54.6f ) ) );
+        assertThat( index.size(), equalTo( 1 ) );
+        assertThat( index.contains( "land" ), is( false ) );
+    }
+
+    @Test
+    void copyLocations() {
+        // the locations stay pending or are merged at once
+        for (int mergeSize : new int[] { 1, 100 }) {
+            LocationIndex index = new LocationIndex( 4, mergeSize );
+            Location added = createLocation( "kreis", 9f, 52f, 10f, 53f );
+            index.addAll( new Location[] { added } );
+            added.setName( "anders" );
+            index.get( "kreis" ).setName( "anders" );
+            index.search( new float[] { 9.5f, 52.5f, 9.6f, 52.6f } ).get( 0 ).setName( "anders" );
+            assertThat( index.get( "kreis" ).getName(), is( "kreis" ) );
+            assertThat( index.search( new float[] { 9.5f, 52.5f, 9.6f, 52.6f } ).get( 0 ).getName(), is( "kreis" ) );
+        }
+    }
+
+    @Test
+    void indexSnapshot() throws Exception {
+        GazetteerSnapshotWriter writer = new GazetteerSnapshotWriter();
+        for (Location location : new Location[] { createLocation( "land", 7f, 51f, 11f, 54f ), createLocation( "kreis", 9f, 52f, 10f, 53f ),
+                createLocation( "insel", 7f, 54.5f, 7.2f, 54.6f ) }) {
+            writer.add( location, Arrays.asList( location.getName() ) );
+        }
+        writer.write( dir.resolve( "gazetteer.snapshot" ), 1234L );
+
+        // the added locations are merged at once or stay pending
+        for (int mergeSize : new int[] { 1, 100 }) {
+            LocationIndex index = new LocationIndex( 4, mergeSize );
+            index.addAll( new Location[] { createLocation( "alt", 9.5f, 52.5f, 9.6f, 52.6f ) } );
+            index.reset( GazetteerSnapshot.open( dir.resolve( "gazetteer.snapshot" ) ) );
+            assertThat( index.size(), equalTo( 3 ) );
+            assertThat( index.contains( "alt" ), is( false ) );
+            assertThat( index.get( "kreis" ).getName(), is( "kreis" ) );
+            assertThat( ids( index.search( new float[] { 9.5f, 52.5f, 9.6f, 52.6f } ) ), containsInAnyOrder( "land", "kreis" ) );
+
+            // added locations replace those of the snapshot
+            index.addAll( new Location[] { createLocation( "kreis", 12f, 52f, 13f, 53f ), createLocation( "gemeinde", 9.6f, 52.3f, 9.9f, 52.4f ) } );
+            assertThat( ids( index.search( new float[] { 9.7f, 52.35f, 9.8f, 52.36f } ) ), containsInAnyOrder( "land", "gemeinde" ) );
+            assertThat( ids( index.search( new float[] { 12.5f, 52.5f, 12.5f, 52.5f } ) ), containsInAnyOrder( "kreis" ) );
+            assertThat( index.get( "kreis" ).getBoundingBox()[0], is( 12f ) );
+        }
+    }
+
+    static float[] randomBoxes(Random random, int n) {
+        float[] boxes = new float[n * 4];
+        for (int i = 0; i < n; i++) {
+            float x = random.nextFloat() * 100;
+            float y = random.nextFloat() * 100;
+            boxes[4 * i] = x;
+            boxes[4 * i + 1] = y;
+            boxes[4 * i + 2] = x + random.nextFloat() * 5;
+            boxes[4 * i + 3] = y + random.nextFloat() * 5;
+        }
+        return boxes;
+    }
+
+    private static Location createLocation(String id, float... box) {
+        Location location = new LocationImpl();
+        location.setId( id );
+        location.setName( id );
+        if (box != null) {
+            location.setBoundingBox( box[0], box[1], box[2], box[3] );
+        }
+        return location;
+    }
+
+    private static List<String> ids(List<Location> locations) {
+        List<String> ids = new ArrayList<String>();
+        for (Location location : locations) {
+            ids.add( location.getId() );
+        }
+        return ids;
+    }
+
+}
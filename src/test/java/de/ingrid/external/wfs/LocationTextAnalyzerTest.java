@@ -0,0 +1,79 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.core.Is.is;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class LocationTextAnalyzerTest {
+
+    private LocationTextAnalyzer analyzer = new LocationTextAnalyzer( Arrays.asList( "der", "die", "und", "in", "am" ), 2 );
+
+    @Test
+    void singleWords() {
+        List<String> candidates = analyzer.getCandidates( "Die Leine fließt durch Hannover und Hannover.", 1, true );
+
+        assertThat( candidates, contains( "leine", "fließt", "durch", "hannover" ) );
+    }
+
+    @Test
+    void wordSequences() {
+        List<String> candidates = analyzer.getCandidates( "Messe in Frankfurt am Main, Schleswig-Holstein", 3, true );
+
+        assertThat( candidates, contains( "messe", "messe in frankfurt", "frankfurt", "frankfurt am main", "main", "schleswig-holstein" ) );
+        // a sequence neither starts nor ends with a stop word and does not span over punctuation
+        assertThat( candidates, not( hasItems( "in frankfurt", "frankfurt am", "main schleswig-holstein" ) ) );
+    }
+
+    @Test
+    void numbersEndSequences() {
+        List<String> candidates = analyzer.getCandidates( "Hannover 2023 Messe A7 Kassel", 2, true );
+
+        assertThat( candidates, contains( "hannover", "messe", "messe a7", "a7", "a7 kassel", "kassel" ) );
+    }
+
+    @Test
+    void caseSensitive() {
+        List<String> candidates = analyzer.getCandidates( "Bad Homburg liegt im Taunus", 2, false );
+
+        // only candidates starting with an upper case letter are kept as they are
+        assertThat( candidates, contains( "Bad", "Bad Homburg", "Homburg", "Homburg liegt", "Taunus" ) );
+    }
+
+    @Test
+    void noCandidates() {
+        assertThat( analyzer.getCandidates( null, 3, true ), is( empty() ) );
+        assertThat( analyzer.getCandidates( "die und der - 42 !", 3, true ), is( empty() ) );
+        assertThat( analyzer.getCandidates( "a b c", 3, true ), contains( "a b", "a b c", "b c" ) );
+    }
+
+}
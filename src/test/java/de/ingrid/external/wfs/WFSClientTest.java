@@ -0,0 +1,289 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import com.sun.net.httpserver.HttpServer;
+
+import de.ingrid.external.om.Location;
+
+/**
+ * Tests the HTTP transport of the client against a local stub of the WFS. The stub
+ * returns only the requested properties and compresses the response if accepted.
+ */
+public class WFSClientTest {
+
+    private static final String[] TYPES = new String[] { "AX_Gemeinde", "AX_KreisRegion" };
+    private static final List<String> IDS = Arrays.asList( "DEBKGGND00001EA0", "DEBKGGND00001EFA" );
+
+    private HttpServer server;
+    private byte[] response;
+    private byte[] projectedResponse;
+    private volatile long delay;
+    private volatile boolean rejectProjection;
+    private volatile String encoding;
+    private WFSMapper mapper = new WFSMapper( ResourceBundle.getBundle( "wfs" ) );
+    private Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        try (InputStream in = WFSClientTest.class.getResourceAsStream( "/responses/hannover.xml" )) {
+            response = in.readAllBytes();
+        }
+        projectedResponse = project( response, WFSMapper.PROPERTIES );
+        server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        server.createContext( "/wfs", exchange -> {
+            clientPorts.add( exchange.getRemoteAddress().getPort() );
+            String request = new String( exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8 );
+            if (delay > 0) {
+                try {
+                    Thread.sleep( delay );
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            // only a projection contains gn:ars
+            boolean projection = request.contains( "gn:ars" );
+            if (projection && rejectProjection) {
+                exchange.sendResponseHeaders( 400, -1 );
+                exchange.close();
+                return;
+            }
+            byte[] body = projection ? projectedResponse : response;
+            String accepted = exchange.getRequestHeaders().getFirst( "Accept-Encoding" );
+            if (encoding != null && accepted != null && accepted.contains( encoding )) {
+                body = compress( body, encoding );
+                exchange.getResponseHeaders().add( "Content-Encoding", encoding );
+            }
+            exchange.getResponseHeaders().add( "Content-Type", "text/xml" );
+            exchange.sendResponseHeaders( 200, body.length );
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write( body );
+            }
+        } );
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.stop( 0 );
+    }
+
+    private String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/wfs";
+    }
+
+    @Test
+    void reuseConnections() throws Exception {
+        WFSClient client = new WFSClient( getUrl(), new String[0], TYPES, WFSClient.createHttpClient( 2, 1000, 5000, 1000 ) );
+        try {
+            for (int i = 0; i < 20; i++) {
+                try (InputStream in = client.findLocation( "Hannover", null, null )) {
+                    assertThat( in, is( not( nullValue() ) ) );
+                    assertThat( in.readAllBytes().length, is( response.length ) );
+                }
+            }
+            // all requests were sent over the pooled keep-alive connections
+            assertThat( clientPorts.size(), lessThanOrEqualTo( 2 ) );
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void readTimeout() throws Exception {
+        delay = 3000;
+        WFSClient client = new WFSClient( getUrl(), new String[0], TYPES, WFSClient.createHttpClient( 2, 1000, 500, 1000 ) );
+        try {
+            long start = System.currentTimeMillis();
+            assertThat( client.getLocation( "DEBKGGND00001EA0", null ), is( nullValue() ) );
+            assertThat( System.currentTimeMillis() - start, lessThan( 2500L ) );
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void projectionAndCompression() throws Exception {
+        String[] properties = ResourceBundle.getBundle( "wfs" ).getString( "properties" ).split( "," );
+        WFSClient complete = new WFSClient( getUrl(), new String[0], TYPES, WFSClient.createHttpClient( 2, 1000, 5000, 1000 ) );
+        WFSClient projected = new WFSClient( getUrl(), properties, TYPES, WFSClient.createHttpClient( 2, 1000, 5000, 1000 ) );
+        try {
+            complete.setCompression( false );
+            projected.setCompression( false );
+            long[] received = new long[1];
+            Location[] expected = getLocations( complete, received );
+            assertThat( expected.length, is( 2 ) );
+            assertThat( received[0], is( (long) response.length ) );
+
+            // the same locations with less than a tenth of the bytes
+            assertThat( projected.getProperties(), equalTo( WFSMapper.PROPERTIES ) );
+            assertThat( projected.checkProjection(), is( true ) );
+            assertSameLocations( getLocations( projected, received ), expected );
+            assertThat( received[0], is( (long) projectedResponse.length ) );
+            assertThat( received[0], lessThan( response.length / 10L ) );
+
+            projected.setCompression( true );
+            for (String compression : new String[] { "gzip", "deflate" }) {
+                encoding = compression;
+                assertSameLocations( getLocations( projected, received ), expected );
+                assertThat( received[0], lessThan( projectedResponse.length / 2L ) );
+            }
+        } finally {
+            complete.close();
+            projected.close();
+        }
+    }
+
+    @Test
+    void rejectedProjection() throws Exception {
+        rejectProjection = true;
+        WFSClient client = new WFSClient( getUrl(), WFSMapper.PROPERTIES.toArray( new String[0] ), TYPES,
+                WFSClient.createHttpClient( 2, 1000, 5000, 1000 ) );
+        try {
+            // the request is sent again for complete features, which are requested from now on
+            Location[] result = getLocations( client, new long[1] );
+            assertThat( result.length, is( 2 ) );
+            assertThat( client.getProperties(), is( empty() ) );
+        } finally {
+            client.close();
+        }
+
+        client = new WFSClient( getUrl(), WFSMapper.PROPERTIES.toArray( new String[0] ), TYPES,
+                WFSClient.createHttpClient( 2, 1000, 5000, 1000 ) );
+        try {
+            assertThat( client.checkProjection(), is( false ) );
+            assertThat( client.getProperties(), is( empty() ) );
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    void validateProperties() throws Exception {
+        WFSClient client = new WFSClient( getUrl(), new String[0], TYPES );
+        try {
+            assertThat( client.getProperties(), is( empty() ) );
+            assertThat( client.getProjection( new String[] { "" } ), is( empty() ) );
+            assertThat( client.getProjection( new String[] { "nnid", "gn:nnid gn:ars" } ), is( empty() ) );
+            assertThat( client.getProjection( new String[] { "gn:nnid" } ), equalTo( WFSMapper.PROPERTIES ) );
+            // the properties of the mapper are added, parts of them are omitted
+            assertThat( client.getProjection( new String[] { "gn:beschreibung", "nnid", "gn:hatEndonym/gn:Endonym/gn:name",
+                    "gn:hatLand/gn:Land/gn:name" } ), contains( "gn:nnid", "gn:ars", "gn:box", "gn:hatEndonym", "gn:hatObjektart",
+                            "gn:beschreibung", "gn:hatLand/gn:Land/gn:name" ) );
+        } finally {
+            client.close();
+        }
+    }
+
+    private Location[] getLocations(WFSClient client, long[] received) throws IOException {
+        try (InputStream in = client.getLocations( IDS, null )) {
+            assertThat( in, is( not( nullValue() ) ) );
+            Location[] locations = mapper.mapReponseToLocations( in );
+            received[0] = WFSClient.getTrace( in ).bytesReceived;
+            return locations;
+        }
+    }
+
+    private static void assertSameLocations(Location[] result, Location[] expected) {
+        assertThat( result.length, equalTo( expected.length ) );
+        for (int i = 0; i < result.length; i++) {
+            assertThat( result[i].getId(), is( expected[i].getId() ) );
+            assertThat( result[i].getName(), is( expected[i].getName() ) );
+            assertThat( result[i].getNativeKey(), is( expected[i].getNativeKey() ) );
+            assertThat( result[i].getTypeId(), is( expected[i].getTypeId() ) );
+            assertThat( result[i].getTypeName(), is( expected[i].getTypeName() ) );
+            assertThat( result[i].getBoundingBox(), equalTo( expected[i].getBoundingBox() ) );
+        }
+    }
+
+    /**
+     * Remove all properties of the features except the given ones, like the WFS does.
+     */
+    private static byte[] project(byte[] response, List<String> properties) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware( true );
+        Document document = factory.newDocumentBuilder().parse( new ByteArrayInputStream( response ) );
+        NodeList features = document.getElementsByTagNameNS( WFSMapper.NS_GN, "GnObjekt" );
+        for (int i = 0; i < features.getLength(); i++) {
+            Node child = features.item( i ).getFirstChild();
+            while (child != null) {
+                Node next = child.getNextSibling();
+                if (child.getNodeType() == Node.ELEMENT_NODE && !properties.contains( "gn:" + ((Element) child).getLocalName() )) {
+                    features.item( i ).removeChild( child );
+                }
+                child = next;
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TransformerFactory.newInstance().newTransformer().transform( new DOMSource( document ), new StreamResult( out ) );
+        return out.toByteArray();
+    }
+
+    private static byte[] compress(byte[] body, String encoding) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream compressed = "gzip".equals( encoding ) ? new GZIPOutputStream( out ) : new DeflaterOutputStream( out )) {
+            compressed.write( body );
+        }
+        return out.toByteArray();
+    }
+
+}
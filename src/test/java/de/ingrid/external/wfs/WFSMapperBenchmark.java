@@ -0,0 +1,92 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import de.ingrid.external.om.Location;
+
+/**
+ * Compares the streaming {@link WFSMapper} with the former JAXB/DOM based mapping
+ * on the response in src/test/resources/responses/hannover.xml.
+ * Run with the main method from the test classpath, it is not part of the unit tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WFSMapperBenchmark {
+
+    private byte[] response;
+    private WFSMapper streamMapper;
+    private WFSDomMapper domMapper;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream in = WFSMapperBenchmark.class.getResourceAsStream( "/responses/hannover.xml" )) {
+            response = in.readAllBytes();
+        }
+        ResourceBundle wfsProps = ResourceBundle.getBundle( "wfs" );
+        streamMapper = new WFSMapper( wfsProps );
+        domMapper = new WFSDomMapper( wfsProps );
+    }
+
+    @Benchmark
+    public Location[] streamMapper() {
+        return streamMapper.mapReponseToLocations( new ByteArrayInputStream( response ) );
+    }
+
+    @Benchmark
+    public Location[] domMapper() {
+        return domMapper.mapReponseToLocations( new ByteArrayInputStream( response ) );
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include( WFSMapperBenchmark.class.getSimpleName() )
+                .build();
+        new Runner( options ).run();
+    }
+
+}
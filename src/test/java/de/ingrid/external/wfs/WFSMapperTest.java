@@ -0,0 +1,142 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ResourceBundle;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.ingrid.external.om.Location;
+
+public class WFSMapperTest {
+
+    private static ResourceBundle wfsProps;
+    private static WFSMapper mapper;
+
+    @BeforeAll
+    public static void setUpBeforeClass() {
+        wfsProps = ResourceBundle.getBundle( "wfs" );
+        mapper = new WFSMapper( wfsProps );
+    }
+
+    @Test
+    void mapResponse() throws Exception {
+        Location[] result;
+        try (InputStream response = getResponse( "hannover.xml" )) {
+            result = mapper.mapReponseToLocations( response );
+        }
+
+        // the third featureMember is only a reference and must not interrupt the mapping
+        assertThat( result, is( not( nullValue() ) ) );
+        assertThat( result.length, equalTo( 2 ) );
+
+        assertThat( result[0].getId(), is( "DEBKGGND00001EA0" ) );
+        assertThat( result[0].getName(), is( "Hannover" ) );
+        assertThat( result[0].getNativeKey(), is( "032410001001" ) );
+        assertThat( result[0].getTypeId(), is( "use6Type" ) );
+        assertThat( result[0].getTypeName(), is( "Gemeinde" ) );
+        assertThat( result[0].getBoundingBox(), equalTo( new float[] { 9.603505f, 52.307505f, 9.919574f, 52.454759f } ) );
+
+        assertThat( result[1].getId(), is( "DEBKGGND00001EFA" ) );
+        assertThat( result[1].getName(), is( "Hannover" ) );
+        assertThat( result[1].getNativeKey(), is( "03241" ) );
+        assertThat( result[1].getTypeId(), is( "use4Type" ) );
+        assertThat( result[1].getTypeName(), is( "Kreis" ) );
+    }
+
+    @Test
+    void mapResponseLikeDomMapper() throws Exception {
+        Location[] expected;
+        try (InputStream response = getResponse( "hannover.xml" )) {
+            expected = new WFSDomMapper( wfsProps ).mapReponseToLocations( response );
+        }
+        Location[] result;
+        try (InputStream response = getResponse( "hannover.xml" )) {
+            result = mapper.mapReponseToLocations( response );
+        }
+
+        assertThat( result.length, equalTo( expected.length ) );
+        for (int i = 0; i < result.length; i++) {
+            assertThat( result[i].getId(), is( expected[i].getId() ) );
+            assertThat( result[i].getName(), is( expected[i].getName() ) );
+            assertThat( result[i].getNativeKey(), is( expected[i].getNativeKey() ) );
+            assertThat( result[i].getTypeId(), is( expected[i].getTypeId() ) );
+            assertThat( result[i].getTypeName(), is( expected[i].getTypeName() ) );
+            assertThat( result[i].getBoundingBox(), equalTo( expected[i].getBoundingBox() ) );
+        }
+    }
+
+    @Test
+    void mapTypeReferenceAndPos() {
+        String xml = "<wfs:FeatureCollection xmlns:wfs=\"http://www.opengis.net/wfs\" xmlns:gml=\"http://www.opengis.net/gml\""
+                + " xmlns:gn=\"http://www.geodatenzentrum.de/gnde\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">"
+                + "<gml:featureMember><gn:GnObjekt><gn:nnid>A</gn:nnid>"
+                + "<gn:box><gml:Polygon><gml:exterior><gml:LinearRing><gml:posList>52.1 9.1 52.2 9.1 52.2 9.2 52.1 9.2 52.1 9.1</gml:posList></gml:LinearRing></gml:exterior></gml:Polygon></gn:box>"
+                + "<gn:hatEndonym><gn:Endonym><gn:name>Name A</gn:name></gn:Endonym></gn:hatEndonym>"
+                + "<gn:hatObjektart><gn:Objektart gml:id=\"Obj_1\"><gn:schluessel>73005</gn:schluessel><gn:objektart>AX_Gemeinde</gn:objektart></gn:Objektart></gn:hatObjektart>"
+                + "</gn:GnObjekt></gml:featureMember>"
+                + "<gml:featureMember><gn:GnObjekt><gn:nnid>B</gn:nnid>"
+                + "<gml:pos>9.3 52.3</gml:pos><gml:pos>9.4 52.4</gml:pos>"
+                + "<gn:hatEndonym><gn:Endonym><gn:name>Name B en</gn:name><gn:hatSprache><gn:Sprache><gn:sprache_ID>2</gn:sprache_ID></gn:Sprache></gn:hatSprache></gn:Endonym></gn:hatEndonym>"
+                + "<gn:hatEndonym><gn:Endonym><gn:name>Name B</gn:name><gn:hatSprache><gn:Sprache><gn:sprache_ID>1</gn:sprache_ID></gn:Sprache></gn:hatSprache></gn:Endonym></gn:hatEndonym>"
+                + "<gn:hatObjektart xlink:href=\"#Obj_1\"/>"
+                + "</gn:GnObjekt></gml:featureMember>"
+                + "<gml:featureMember><gn:GnObjekt><gn:nnid>C</gn:nnid><gml:posList>52.1 9.1 x</gml:posList>"
+                + "<gn:hatObjektart xlink:href=\"#Obj_1\"/></gn:GnObjekt></gml:featureMember>"
+                + "</wfs:FeatureCollection>";
+
+        Location[] result = mapper.mapReponseToLocations( new ByteArrayInputStream( xml.getBytes( StandardCharsets.UTF_8 ) ) );
+
+        assertThat( result.length, equalTo( 2 ) );
+        assertThat( result[0].getName(), is( "Name A" ) );
+        assertThat( result[0].getBoundingBox(), equalTo( new float[] { 9.1f, 52.1f, 9.2f, 52.2f } ) );
+        assertThat( result[1].getId(), is( "B" ) );
+        assertThat( result[1].getName(), is( "Name B" ) );
+        assertThat( result[1].getBoundingBox(), equalTo( new float[] { 9.3f, 52.3f, 9.4f, 52.4f } ) );
+        assertThat( result[1].getNativeKey(), is( nullValue() ) );
+        assertThat( result[1].getTypeId(), is( "use6Type" ) );
+        assertThat( result[1].getTypeName(), is( "Gemeinde" ) );
+    }
+
+    @Test
+    void mapExceptionReport() {
+        String xml = "<ows:ExceptionReport xmlns:ows=\"http://www.opengis.net/ows\"><ows:Exception/></ows:ExceptionReport>";
+        Location[] result = mapper.mapReponseToLocations( new ByteArrayInputStream( xml.getBytes( StandardCharsets.UTF_8 ) ) );
+        assertThat( result, is( nullValue() ) );
+    }
+
+    static InputStream getResponse(String name) {
+        return WFSMapperTest.class.getResourceAsStream( "/responses/" + name );
+    }
+
+}
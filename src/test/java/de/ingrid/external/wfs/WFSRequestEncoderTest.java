@@ -0,0 +1,147 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.geotoolkit.wfs.xml.WFSMarshallerPool;
+import org.geotoolkit.wfs.xml.v110.GetFeatureType;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import de.ingrid.external.GazetteerService.MatchingType;
+
+public class WFSRequestEncoderTest {
+
+    private static final String[] TERMS = new String[] {
+            "Berlin", "Hannover", "Bad Homburg v. d. Höhe", "Frankfurt (Oder)", "A&B <c> d>e",
+            "\"quoted\" 'single'", "Straße & Weg", "Łódź", "東京", "🗺 map", "", "*Hannover*", "DEBKGGND00001GFQ" };
+
+    private static WFSClient client;
+
+    @BeforeAll
+    public static void setUpBeforeClass() throws Exception {
+        String[] types = new String[] { "AX_Gemeinde", "AX_Bundesland", "AX_KreisRegion" };
+        client = new WFSClient( "http://localhost/wfs", new String[0], types );
+    }
+
+    @Test
+    void encodeLikeJaxb() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool( 8 );
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 8; t++) {
+                final long seed = t;
+                results.add( executor.submit( (Callable<Integer>) () -> compareRandomRequests( new Random( seed ), 500 ) ) );
+            }
+            for (Future<Integer> result : results) {
+                assertThat( result.get(), equalTo( 500 ) );
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void encodeListLikeJaxb() throws Exception {
+        Marshaller marshaller = WFSMarshallerPool.getInstance().acquireMarshaller();
+        try {
+            for (boolean ignoreCase : new boolean[] { true, false }) {
+                for (int n = 2; n <= TERMS.length; n++) {
+                    List<String> names = Arrays.asList( TERMS ).subList( 0, n );
+                    assertThat( toBytes( client.encodeFindNamesRequest( names, ignoreCase ) ),
+                            equalTo( marshal( marshaller, client.createFindNamesRequest( names, !ignoreCase ) ) ) );
+                    assertThat( toBytes( client.encodeGetRequest( names ) ),
+                            equalTo( marshal( marshaller, client.createGetRequest( names ) ) ) );
+                }
+                // a single name is repeated, since an OR needs two operands
+                assertThat( toBytes( client.encodeFindNamesRequest( Arrays.asList( "Berlin" ), ignoreCase ) ),
+                        equalTo( marshal( marshaller, client.createFindNamesRequest( Arrays.asList( "Berlin", "Berlin" ), !ignoreCase ) ) ) );
+            }
+        } finally {
+            WFSMarshallerPool.getInstance().recycle( marshaller );
+        }
+    }
+
+    @Test
+    void escape() {
+        assertThat( new String( WFSRequestEncoder.escape( "a&b<c>d\"e" ), StandardCharsets.UTF_8 ), equalTo( "a&amp;b&lt;c&gt;d\"e" ) );
+        assertThat( new String( WFSRequestEncoder.escape( "a\u0000b\u001Fc\td" ), StandardCharsets.UTF_8 ), equalTo( "abc\td" ) );
+        assertThat( new String( WFSRequestEncoder.escape( "Höhe" ), StandardCharsets.UTF_8 ), equalTo( "Höhe" ) );
+    }
+
+    private int compareRandomRequests(Random random, int count) throws JAXBException, IOException {
+        MatchingType[] matchings = new MatchingType[] { null, MatchingType.EXACT, MatchingType.BEGINS_WITH, MatchingType.CONTAINS };
+        Marshaller marshaller = WFSMarshallerPool.getInstance().acquireMarshaller();
+        try {
+            int compared = 0;
+            for (int i = 0; i < count; i++) {
+                String term = TERMS[random.nextInt( TERMS.length )];
+                if (random.nextBoolean()) {
+                    MatchingType matching = matchings[random.nextInt( matchings.length )];
+                    assertThat( toBytes( client.encodeFindRequest( term, matching ) ),
+                            equalTo( marshal( marshaller, client.createFindRequest( WFSClient.toQuery( term, matching ) ) ) ) );
+                } else {
+                    assertThat( toBytes( client.encodeGetRequest( term ) ),
+                            equalTo( marshal( marshaller, client.createGetRequest( term ) ) ) );
+                }
+                compared++;
+            }
+            return compared;
+        } finally {
+            WFSMarshallerPool.getInstance().recycle( marshaller );
+        }
+    }
+
+    private static byte[] toBytes(RequestEntity request) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.writeRequest( out );
+        assertThat( (long) out.size(), equalTo( request.getContentLength() ) );
+        return out.toByteArray();
+    }
+
+    private static byte[] marshal(Marshaller marshaller, GetFeatureType request) throws JAXBException {
+        StringWriter writer = new StringWriter();
+        marshaller.marshal( request, writer );
+        return writer.toString().getBytes( StandardCharsets.UTF_8 );
+    }
+
+}
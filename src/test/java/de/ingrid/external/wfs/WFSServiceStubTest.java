@@ -0,0 +1,227 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+import de.ingrid.external.om.Location;
+import de.ingrid.external.wfs.WFSMetrics.Operation;
+import de.ingrid.external.wfs.WFSMetrics.Phase;
+
+/**
+ * Tests the service against a local stub of the WFS, which returns Hannover
+ * (DEBKGGND00001EA0 and DEBKGGND00001EFA) for every request.
+ */
+public class WFSServiceStubTest {
+
+    private HttpServer server;
+    private byte[] response;
+    private List<String> requests = new CopyOnWriteArrayList<String>();
+    private ExecutorService executor;
+    private WFSService service;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        try (InputStream in = WFSMapperTest.getResponse( "hannover.xml" )) {
+            response = in.readAllBytes();
+        }
+        server = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+        server.createContext( "/wfs", exchange -> {
+            requests.add( new String( exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8 ) );
+            exchange.getResponseHeaders().add( "Content-Type", "text/xml" );
+            exchange.sendResponseHeaders( 200, response.length );
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write( response );
+            }
+        } );
+        server.start();
+
+        ResourceBundle wfsProps = ResourceBundle.getBundle( "wfs" );
+        executor = Executors.newFixedThreadPool( 4 );
+        service = new WFSService();
+        service.wfsClient = new WFSClient( "http://localhost:" + server.getAddress().getPort() + "/wfs", new String[0],
+                new String[] { "AX_Gemeinde", "AX_KreisRegion" }, WFSClient.createHttpClient( 4, 1000, 5000, 1000 ) );
+        service.wfsMapper = new WFSMapper( wfsProps );
+        service.asyncExecutor = executor;
+        service.idsPerRequest = 10;
+        service.batchParallelism = 3;
+        service.locationCache = new LocationCache<String>( 1000, 1000000L, 60, 0, executor );
+        service.spatialIndex = new LocationIndex( 16, 256 );
+        service.relatedFallback = true;
+        service.relatedMaxFeatures = 50;
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        service.destroy();
+        executor.shutdown();
+        server.stop( 0 );
+    }
+
+    @Test
+    void getLocationsInChunks() {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < 25; i++) {
+            ids.add( "DEBKGGND0000" + (1000 + i) );
+        }
+        ids.add( 7, "DEBKGGND00001EFA" );
+        ids.add( "DEBKGGND00001EA0" );
+        ids.add( "DEBKGGND00001EA0" );
+
+        Map<String, Location> result = service.getLocations( ids, null );
+
+        // 27 distinct IDs are requested in 3 chunks of at most 10 IDs
+        assertThat( requests.size(), equalTo( 3 ) );
+        assertThat( result.size(), equalTo( 27 ) );
+        assertThat( new ArrayList<String>( result.keySet() ).subList( 6, 9 ),
+                contains( "DEBKGGND00001006", "DEBKGGND00001EFA", "DEBKGGND00001007" ) );
+        assertThat( result.get( "DEBKGGND00001EFA" ).getNativeKey(), is( "03241" ) );
+        assertThat( result.get( "DEBKGGND00001EA0" ).getNativeKey(), is( "032410001001" ) );
+        // the stub returns only Hannover, all others are reported as missing
+        assertThat( result.get( "DEBKGGND00001000" ), is( nullValue() ) );
+
+        // known and missing IDs are cached
+        result = service.getLocations( Arrays.asList( "DEBKGGND00001EA0", "DEBKGGND00001000" ), null );
+        assertThat( requests.size(), equalTo( 3 ) );
+        assertThat( result.get( "DEBKGGND00001EA0" ).getName(), is( "Hannover" ) );
+        assertThat( result.get( "DEBKGGND00001000" ), is( nullValue() ) );
+        assertThat( service.getLocation( "DEBKGGND00001EFA", null ).getNativeKey(), is( "03241" ) );
+        assertThat( requests.size(), equalTo( 3 ) );
+    }
+
+    @Test
+    void cacheNamesOfTexts() {
+        service.textAnalyzer = new LocationTextAnalyzer( Arrays.asList( "in", "die" ), 2 );
+        service.namesPerRequest = 100;
+        service.findCache = new LocationCache<String>( 1000, 1000000L, 60, 0, executor );
+        service.textCache = new LocationCache<String>( 1000, 1000000L, 60, 0, executor );
+
+        Location[] result = service.getLocationsFromText( "Messe in Hannover", 2, true, null );
+        assertThat( ids( result ), contains( "DEBKGGND00001EA0", "DEBKGGND00001EFA" ) );
+        assertThat( requests.size(), equalTo( 1 ) );
+
+        // all candidates are cached apart from the searches
+        result = service.getLocationsFromText( "Messe in Hannover", 2, true, null );
+        assertThat( ids( result ), contains( "DEBKGGND00001EA0", "DEBKGGND00001EFA" ) );
+        assertThat( requests.size(), equalTo( 1 ) );
+        assertThat( service.getTextCache().size(), greaterThan( 0 ) );
+        assertThat( service.getFindCache().size(), equalTo( 0 ) );
+        assertThat( service.getFindCache().getMissCount(), equalTo( 0L ) );
+    }
+
+    @Test
+    void recordStatistics() {
+        WFSStatistics metrics = new WFSStatistics();
+        service.setMetrics( metrics );
+        service.getRelatedLocationsFromLocation( "DEBKGGND00001EA0", false, null );
+        service.getLocations( Arrays.asList( "DEBKGGND00001EA0", "DEBKGGND00001EFA", "DEBKGGND00001000" ), null );
+
+        OperationStatistics batch = metrics.getStatistics( Operation.BATCH );
+        assertThat( batch.getRequestCount(), is( 1L ) );
+        assertThat( batch.getErrorCount(), is( 0L ) );
+        assertThat( batch.getBytesReceived(), is( (long) response.length ) );
+        assertThat( batch.getFeatureCount(), is( 2L ) );
+        assertThat( batch.getMappingFailureCount(), is( 0L ) );
+        assertThat( batch.getPhaseMeanMillis().keySet().size(), is( Phase.values().length ) );
+        assertThat( batch.getPhaseMeanMillis().get( "TRANSFER" ) + batch.getPhaseMeanMillis().get( "PARSE" ), greaterThan( 0.0 ) );
+        assertThat( batch.getMaxMillis(), greaterThan( 0.0 ) );
+
+        // the location of the related locations is requested by ID, its surroundings by box,
+        // which are then cached, so only the missing ID is requested in a batch
+        assertThat( metrics.getStatistics( Operation.GET ).getRequestCount(), is( 1L ) );
+        assertThat( metrics.getStatistics( Operation.RELATED ).getRequestCount(), is( 1L ) );
+        assertThat( metrics.getStatistics( Operation.FIND ).getRequestCount(), is( 0L ) );
+    }
+
+    @Test
+    void getLocationsOnThreadOfPool() throws Exception {
+        // the helpers cannot start while the only thread of the pool waits for the chunks
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        service.asyncExecutor = single;
+        try {
+            List<String> ids = new ArrayList<String>();
+            for (int i = 0; i < 25; i++) {
+                ids.add( "DEBKGGND0000" + (1000 + i) );
+            }
+            Map<String, Location> result = single.submit( () -> service.getLocations( ids, null ) ).get( 10, TimeUnit.SECONDS );
+            assertThat( result.keySet().containsAll( ids ), is( true ) );
+            assertThat( requests.size(), equalTo( 3 ) );
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    void getRelatedLocations() {
+        // the location is not indexed yet, so its surroundings are requested from the WFS
+        Location[] result = service.getRelatedLocationsFromLocation( "DEBKGGND00001EA0", false, null );
+        assertThat( requests.size(), equalTo( 2 ) );
+        assertThat( requests.get( 1 ), containsString( "BBOX" ) );
+        assertThat( requests.get( 1 ), containsString( "maxFeatures=\"50\"" ) );
+        assertThat( ids( result ), contains( "DEBKGGND00001EFA" ) );
+
+        // now both are indexed and the largest comes first
+        result = service.getRelatedLocationsFromLocation( "DEBKGGND00001EFA", true, null );
+        assertThat( requests.size(), equalTo( 2 ) );
+        assertThat( ids( result ), contains( "DEBKGGND00001EFA", "DEBKGGND00001EA0" ) );
+        result = service.getRelatedLocationsFromLocation( "DEBKGGND00001EA0", true, null );
+        assertThat( ids( result ), contains( "DEBKGGND00001EA0", "DEBKGGND00001EFA" ) );
+        assertThat( requests.size(), equalTo( 2 ) );
+    }
+
+    private static List<String> ids(Location[] locations) {
+        List<String> ids = new ArrayList<String>();
+        for (Location location : locations) {
+            ids.add( location.getId() );
+        }
+        return ids;
+    }
+
+}
@@ -30,6 +30,10 @@ import static org.hamcrest.core.StringStartsWith.startsWith;
 import static org.hamcrest.core.IsNot.not;
 import static org.hamcrest.core.IsNull.nullValue;
 
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 
@@ -46,6 +50,11 @@ public class WFSServiceTest {
         service.init();
     }
 
+    @AfterAll
+    public static void tearDownAfterClass() {
+        service.destroy();
+    }
+
     // see:
     // https://svn.kenai.com/svn/envision~portal/common/discovery-csw/src/test/java/at/sti2/envision/discovery/geotoolkit/GeoToolkitTest_v110.java
 
@@ -97,6 +106,33 @@ public class WFSServiceTest {
         assertThat(location.getTypeName(), is("Bundesland"));
     }
 
+    @Test
+    void getLocations() {
+        Map<String, Location> result = service.getLocations(Arrays.asList("DEBKGGND00001GFQ", "DEBKGGND00001EA0", "DEBKGGND0000XXXX"), null);
+        assertThat(result.size(), is(3));
+        assertThat(result.get("DEBKGGND00001GFQ").getName(), is("Berlin"));
+        assertThat(result.get("DEBKGGND00001EA0").getName(), is("Hannover"));
+        assertThat(result.get("DEBKGGND0000XXXX"), is(nullValue()));
+    }
+
+    @Test
+    void getRelatedLocations() {
+        Location[] result = service.getRelatedLocationsFromLocation("DEBKGGND00001EA0", true, null); // Hannover (Gemeinde)
+        assertThat(result, is(not(nullValue())));
+        assertThat(result.length, greaterThan(2));
+        assertThat(result[0].getId(), is("DEBKGGND00001EA0"));
+    }
+
+    @Test
+    void getLocationsFromText() {
+        Location[] result = service.getLocationsFromText("Die Messe in Hannover ist die größte in Niedersachsen.", 3, true, null);
+
+        assertThat(result, is(not(nullValue())));
+        assertThat(result.length, greaterThan(2));
+        assertThat(result[0].getName(), is("Hannover"));
+        assertThat(result[result.length - 1].getName(), is("Niedersachsen"));
+    }
+
     @Test
     void testMapping() {
         // check if mapping is not interrupted by single incorrect featureMember
@@ -0,0 +1,110 @@
+/*
+ * **************************************************-
+ * InGrid external-service-wfs
+ * ==================================================
+ * Copyright (C) 2014 - 2025 wemove digital solutions GmbH
+ * ==================================================
+ * Licensed under the EUPL, Version 1.2 or – as soon they will be
+ * approved by the European Commission - subsequent versions of the
+ * EUPL (the "Licence");
+ * 
+ * You may not use this work except in compliance with the Licence.
+ * You may obtain a copy of the Licence at:
+ * 
+ * https://joinup.ec.europa.eu/software/page/eupl
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the Licence is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the Licence for the specific language governing permissions and
+ * limitations under the Licence.
+ * **************************************************#
+ */
+package de.ingrid.external.wfs;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.jupiter.api.Test;
+
+import de.ingrid.external.wfs.WFSMetrics.Operation;
+import de.ingrid.external.wfs.WFSMetrics.Phase;
+
+public class WFSStatisticsTest {
+
+    @Test
+    void bucketsCoverAllValues() {
+        int last = -1;
+        for (long value : new long[] { 0, 1, 2, 3, 4, 5, 7, 8, 100, 1000, 123456789L, Long.MAX_VALUE }) {
+            int index = LatencyHistogram.index( value );
+            assertThat( index, greaterThanOrEqualTo( last ) );
+            assertThat( LatencyHistogram.upperBound( index ), greaterThanOrEqualTo( value ) );
+            // the bucket is at most a quarter of its lower bound wide
+            assertThat( (double) LatencyHistogram.upperBound( index ), lessThanOrEqualTo( Math.max( 3, value * 1.25 ) ) );
+            last = index;
+        }
+    }
+
+    @Test
+    void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record( i * 1000L );
+        }
+        assertThat( histogram.getCount(), is( 1000L ) );
+        assertThat( histogram.getMax(), is( 1000000L ) );
+        assertThat( histogram.getMean(), closeTo( 500500, 0.1 ) );
+        assertThat( (double) histogram.getPercentile( 0.5 ), closeTo( 500000, 125000 ) );
+        assertThat( (double) histogram.getPercentile( 0.99 ), closeTo( 990000, 10000 ) );
+        assertThat( histogram.getPercentile( 1 ), is( 1000000L ) );
+
+        histogram.reset();
+        assertThat( histogram.getCount(), is( 0L ) );
+        assertThat( histogram.getPercentile( 0.99 ), is( 0L ) );
+    }
+
+    @Test
+    void registerMBeans() throws Exception {
+        WFSStatistics statistics = new WFSStatistics();
+        statistics.recordRequest( Operation.FIND, 2000000, 1234, 3, 1, false );
+        statistics.recordRequest( Operation.FIND, 4000000, 0, 0, 0, true );
+        statistics.recordPhase( Operation.FIND, Phase.TRANSFER, 1000000 );
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        // another instance with the same name, e.g. a second service, keeps its name
+        WFSStatistics other = new WFSStatistics();
+        other.registerMBeans( "test" );
+        statistics.registerMBeans( "test" );
+        ObjectName name = statistics.getObjectName( Operation.FIND );
+        try {
+            assertThat( other.getObjectName( Operation.FIND ),
+                    is( new ObjectName( "de.ingrid.external.wfs:type=WFSStatistics,name=test,operation=find" ) ) );
+            assertThat( name, is( new ObjectName( "de.ingrid.external.wfs:type=WFSStatistics,name=test-2,operation=find" ) ) );
+
+            assertThat( server.getAttribute( name, "RequestCount" ), is( 2L ) );
+            assertThat( server.getAttribute( name, "ErrorRate" ), is( 0.5 ) );
+            assertThat( server.getAttribute( name, "BytesReceived" ), is( 1234L ) );
+            assertThat( server.getAttribute( name, "MappingFailureCount" ), is( 1L ) );
+            assertThat( (Double) server.getAttribute( name, "MaxMillis" ), closeTo( 4, 0.001 ) );
+            assertThat( statistics.getStatistics( Operation.FIND ).getPhaseMeanMillis().get( "TRANSFER" ), closeTo( 1, 0.001 ) );
+
+            server.invoke( name, "reset", null, null );
+            assertThat( server.getAttribute( name, "RequestCount" ), is( 0L ) );
+        } finally {
+            statistics.unregisterMBeans();
+            other.unregisterMBeans();
+        }
+        assertThat( server.isRegistered( name ), is( false ) );
+        assertThat( statistics.getObjectName( Operation.FIND ), is( nullValue() ) );
+    }
+
+}